@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.cminus.bench;
+
+import static java.nio.CharBuffer.wrap;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.cminus.analyize.Analyizer;
+import net.saga.lang.cminus.analyize.SymbolTable;
+import net.saga.lang.cminus.parser.Node;
+import net.saga.lang.cminus.parser.Parser;
+import net.saga.lang.cminus.scanner.Scanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares running the C-Minus symbol table and type check passes one after
+ * the other against the fused single walk of Analyizer.analyze.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CminusAnalysisBenchmark {
+
+    private static final int LINES_PER_FUNCTION = 9;
+
+    @Param({"1000", "100000", "1000000"})
+    public int lines;
+
+    public Node parseTree;
+
+    @Setup
+    public void setup() {
+        parseTree = new Parser().parseProgram(new Scanner().tokens(wrap(generate(lines))));
+    }
+
+    @Benchmark
+    public SymbolTable analyzeSeparately() {
+        SymbolTable table = Analyizer.buildSymbolTable(parseTree);
+        Analyizer.typeCheck(parseTree);
+        return table;
+    }
+
+    @Benchmark
+    public SymbolTable analyze() {
+        return Analyizer.analyze(parseTree);
+    }
+
+    static String generate(int lines) {
+        StringBuilder program = new StringBuilder(lines * 20);
+        for (int function = 0; function * LINES_PER_FUNCTION < lines; function++) {
+            program.append("int f").append(name(function)).append("(void) {\n")
+                    .append("  int x; int y;\n")
+                    .append("  x = ").append(function % 10).append(";\n")
+                    .append("  y = x + 2 * 3;\n")
+                    .append("  while (x < 10) {\n")
+                    .append("    x = x + 1;\n")
+                    .append("  }\n")
+                    .append("  return y;\n")
+                    .append("}\n");
+        }
+        return program.toString();
+    }
+
+    private static String name(int index) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+
+}
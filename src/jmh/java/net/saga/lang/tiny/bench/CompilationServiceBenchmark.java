@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.compiler.CompilationService;
+import net.saga.lang.tiny.compiler.CompilationService.Compilation;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how a batch compile scales with the number of cores. Compare the
+ * scores for each value of threads, for example with
+ * <code>java -jar target/benchmarks.jar CompilationServiceBenchmark -p threads=1,2,4,8</code>
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompilationServiceBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"2000"})
+    public int programs;
+
+    @Param({"20"})
+    public int lines;
+
+    private List<String> sources;
+    private ForkJoinPool pool;
+    private CompilationService service;
+
+    @Setup
+    public void setup() {
+        sources = new ArrayList<>(programs);
+        for (int i = 0; i < programs; i++) {
+            sources.add(TinyProgramGenerator.generate(lines, i));
+        }
+        pool = new ForkJoinPool(threads);
+        service = new CompilationService(new CompilerOptions(), pool, CompilationService.DEFAULT_CLASS_PREFIX);
+    }
+
+    @TearDown
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    @Benchmark
+    public List<Compilation> compileAll() {
+        return service.compileAll(sources);
+    }
+
+}
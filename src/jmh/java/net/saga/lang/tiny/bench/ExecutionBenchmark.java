@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import static java.nio.CharBuffer.wrap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.closure.ClosureCompiler;
+import net.saga.lang.tiny.closure.ClosureProgram;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.interpreter.Assembler;
+import net.saga.lang.tiny.interpreter.Interpreter;
+import net.saga.lang.tiny.interpreter.Program;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Runs the same loop, once it is loaded, in each way a Tiny program can
+ * run: walking the parse tree with variables in a map, on the switch
+ * interpreter, as closures and as a compiled class.
+ *
+ * The loop reads its starting values and its iteration count, so no engine
+ * knows them ahead of the run and the JIT cannot fold the compiled class's
+ * loop into a constant. Every engine reads from {@link Input}. The compiled
+ * class reads from System.console() as generated, so its bytes are rewritten
+ * to call {@link Input#readLine()} instead.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionBenchmark {
+
+    @Param({"20"})
+    public int bodyLines;
+
+    @Param({"1000"})
+    public int iterations;
+
+    private int[] inputs;
+    private Node parseTree;
+    private Program program;
+    private ClosureProgram closures;
+    private MethodHandle main;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Exception {
+        String source = TinyProgramGenerator.readingLoop(bodyLines, 42L);
+        inputs = new int[TinyProgramGenerator.variables() + 1];
+        for (int i = 0; i < inputs.length - 1; i++) {
+            inputs[i] = i + 1;
+        }
+        inputs[inputs.length - 1] = iterations;
+        parseTree = new Parser().parseProgram(new Scanner().scan(wrap(source)));
+        SymbolTable symbols = Analyizer.analyze(parseTree);
+        program = Assembler.assemble(parseTree, symbols);
+        closures = ClosureCompiler.compile(parseTree, symbols);
+        byte[] classBytes = new CompilerOptions().compile(source, "Executed").jiteClass.toBytes();
+        Class<?> klass = new DynamicClassLoader().define("Executed", readFromInput(classBytes));
+        main = MethodHandles.publicLookup().findStatic(klass, "main", MethodType.methodType(void.class, String[].class));
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void walkTree(Blackhole blackhole) {
+        Input.start(inputs);
+        new TreeEvaluator(blackhole).statements(parseTree);
+    }
+
+    @Benchmark
+    public void interpret(Blackhole blackhole) {
+        Input.start(inputs);
+        Interpreter.execute(program, new int[program.getFrameSize()], Input::next, blackhole::consume);
+    }
+
+    @Benchmark
+    public void runClosures(Blackhole blackhole) {
+        Input.start(inputs);
+        closures.execute(new int[closures.getFrameSize()], Input::next, blackhole::consume);
+    }
+
+    @Benchmark
+    public void runCompiled() throws Throwable {
+        Input.start(inputs);
+        main.invokeExact(new String[0]);
+    }
+
+    /**
+     * The values read by the program under test. The fields are not final,
+     * so the JIT cannot treat what is read as a constant.
+     */
+    public static final class Input {
+
+        private static int[] values;
+        private static int position;
+
+        static void start(int[] values) {
+            Input.values = values;
+            Input.position = 0;
+        }
+
+        public static int next() {
+            return values[position++];
+        }
+
+        /**
+         * Called by the compiled class in place of System.console().readLine().
+         */
+        public static String readLine() {
+            return Integer.toString(next());
+        }
+    }
+
+    /**
+     * Replaces System.console().readLine() in a compiled class with
+     * {@link Input#readLine()}.
+     */
+    private static byte[] readFromInput(byte[] classBytes) {
+        ClassReader reader = new ClassReader(classBytes);
+        ClassWriter writer = new ClassWriter(0);
+        reader.accept(new ClassVisitor(Opcodes.ASM5, writer) {
+            @Override
+            public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+                return new MethodVisitor(Opcodes.ASM5, super.visitMethod(access, name, desc, signature, exceptions)) {
+                    @Override
+                    public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+                        if (owner.equals("java/lang/System") && name.equals("console")) {
+                            return;
+                        }
+                        if (owner.equals("java/io/Console") && name.equals("readLine")) {
+                            super.visitMethodInsn(Opcodes.INVOKESTATIC, Type.getInternalName(Input.class), "readLine", "()Ljava/lang/String;", false);
+                            return;
+                        }
+                        super.visitMethodInsn(opcode, owner, name, desc, itf);
+                    }
+                };
+            }
+        }, 0);
+        return writer.toByteArray();
+    }
+
+    /**
+     * Evaluates the parse tree directly, looking variables up by name.
+     */
+    private static final class TreeEvaluator {
+
+        private final Map<String, Integer> variables = new HashMap<>();
+        private final Blackhole blackhole;
+
+        private TreeEvaluator(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        private void statements(Node statement) {
+            for (; statement != null; statement = statement.getNext()) {
+                switch (statement.getStatementKind()) {
+                    case IF:
+                        if (evaluate(statement.getChild(0)) != 0) {
+                            statements(statement.getChild(1));
+                        } else {
+                            statements(statement.getChild(2));
+                        }
+                        break;
+                    case REPEAT:
+                        do {
+                            statements(statement.getChild(0));
+                        } while (evaluate(statement.getChild(1)) == 0);
+                        break;
+                    case ASSIGN:
+                        variables.put(statement.getName(), evaluate(statement.getChild(0)));
+                        break;
+                    case READ:
+                        variables.put(statement.getName(), Input.next());
+                        break;
+                    case WRITE:
+                        blackhole.consume(evaluate(statement.getChild(0)));
+                        break;
+                    default:
+                        throw new AssertionError(statement.getStatementKind().name());
+                }
+            }
+        }
+
+        private int evaluate(Node expression) {
+            switch (expression.getExpressionKind()) {
+                case ConstantExpression:
+                    return expression.getValue();
+                case IdentifierExpression:
+                    return variables.getOrDefault(expression.getName(), 0);
+                default:
+                    break;
+            }
+            int left = evaluate(expression.getChild(0));
+            int right = evaluate(expression.getChild(1));
+            switch (expression.getOperationAttribute()) {
+                case ADDITION:
+                    return left + right;
+                case SUBTRACTION:
+                    return left - right;
+                case MULTIPLICATION:
+                    return left * right;
+                case INT_DIVISION:
+                    return left / right;
+                case EQ:
+                    return left == right ? 1 : 0;
+                case LT:
+                    return left < right ? 1 : 0;
+                default:
+                    throw new AssertionError(expression.getOperationAttribute().name());
+            }
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.interpreter.Interpreter;
+import net.saga.lang.tiny.interpreter.Program;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from source to the first line of output of a one shot script, in a
+ * fresh JVM, when interpreted and when compiled to a class. Generated
+ * programs write once, at the end, so this is the time of the whole run.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(20)
+@State(Scope.Benchmark)
+public class InterpreterBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int lines;
+
+    private String program;
+    private PrintStream out;
+
+    @Setup
+    public void setup() {
+        program = TinyProgramGenerator.generate(lines);
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public int interpret() {
+        Program loaded = Interpreter.load(program);
+        int[] frame = new int[loaded.getFrameSize()];
+        int[] first = new int[1];
+        Interpreter.execute(loaded, frame, () -> 0, value -> first[0] = value);
+        return first[0];
+    }
+
+    @Benchmark
+    public void compile() throws Exception {
+        Class<?> klass = new DynamicClassLoader().define(new CompilerOptions().compile(program, "FirstOutput").jiteClass);
+        klass.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import static java.nio.CharBuffer.wrap;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.compiler.CompilerContext;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.compiler.TinyCompiler;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Runs a program whose loop body is larger than HugeMethodLimit, compiled as a
+ * single main and split into helper methods. HotSpot never JIT compiles the
+ * single main, so it stays interpreted, while the helpers get compiled.
+ * bodyLines=100 fits in one method either way and is the baseline.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutliningBenchmark {
+
+    private static final int ITERATIONS = 2000;
+
+    @Param({"100", "1500"})
+    public int bodyLines;
+
+    private MethodHandle singleMain;
+    private MethodHandle splitMain;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws Exception {
+        String program = TinyProgramGenerator.loop(bodyLines, ITERATIONS, 42L);
+        singleMain = main(program, 0);
+        splitMain = main(program, CompilerContext.DEFAULT_METHOD_SIZE_LIMIT);
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void runSingleMain() throws Throwable {
+        singleMain.invokeExact(new String[0]);
+    }
+
+    @Benchmark
+    public void runSplitMain() throws Throwable {
+        splitMain.invokeExact(new String[0]);
+    }
+
+    private static MethodHandle main(String program, int methodSizeLimit) throws Exception {
+        Node parseTree = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        SymbolTable table = Analyizer.analyze(parseTree);
+        CompilerContext context = TinyCompiler.compileProgram(parseTree, new CompilerContext().setMethodSizeLimit(methodSizeLimit), table);
+        Class<?> klass = new DynamicClassLoader().define(context.jiteClass);
+        return MethodHandles.publicLookup().findStatic(klass, "main", MethodType.methodType(void.class, String[].class));
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.compiler.ProgramCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares compiling a program from source with loading it from a warm
+ * {@link ProgramCache}.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProgramCacheBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int lines;
+
+    private String program;
+    private CompilerOptions options;
+    private ProgramCache cache;
+
+    @Setup
+    public void setup() {
+        program = TinyProgramGenerator.generate(lines);
+        options = new CompilerOptions();
+        cache = new ProgramCache(options, 64 << 20);
+        cache.load(program);
+    }
+
+    @Benchmark
+    public Class<?> compile() {
+        return new DynamicClassLoader().define(options.compile(program, "Benchmark").jiteClass);
+    }
+
+    @Benchmark
+    public Class<?> loadCached() {
+        return cache.load(program);
+    }
+
+}
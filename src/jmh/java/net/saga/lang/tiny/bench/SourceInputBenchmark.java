@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.scanner.MappedSource;
+import net.saga.lang.tiny.scanner.Scanner;
+import net.saga.lang.tiny.scanner.TableScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reading a source file into a String with memory mapping it. Both
+ * paths read the file and count its tokens, so neither builds a token list.
+ *
+ * The default of 10M lines is a file of a few hundred MB.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SourceInputBenchmark {
+
+    @Param({"10000000"})
+    public int lines;
+
+    private Path file;
+
+    @Setup
+    public void writeSource() throws IOException {
+        file = Files.createTempFile("tiny-bench", ".tny");
+        Files.write(file, TinyProgramGenerator.generate(lines).getBytes(StandardCharsets.US_ASCII));
+    }
+
+    @TearDown
+    public void deleteSource() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int stringSource() throws IOException {
+        String program = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return count(new Scanner(), CharBuffer.wrap(program));
+    }
+
+    @Benchmark
+    public int mappedSource() throws IOException {
+        return count(new Scanner(), MappedSource.map(file));
+    }
+
+    @Benchmark
+    public int stringSourceWithTable() throws IOException {
+        String program = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+        return count(new TableScanner(), CharBuffer.wrap(program));
+    }
+
+    @Benchmark
+    public int mappedSourceWithTable() throws IOException {
+        return count(new TableScanner(), MappedSource.map(file));
+    }
+
+    private static int count(Scanner scanner, CharBuffer buffer) {
+        int count = 0;
+        while (scanner.nextToken(buffer) != null) {
+            count++;
+        }
+        return count;
+    }
+
+}
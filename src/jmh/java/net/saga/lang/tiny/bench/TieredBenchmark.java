@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.interpreter.TieredProgram;
+import net.saga.lang.tiny.interpreter.TieredRunner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A workload of many scripts that run once and one that runs many times,
+ * run by a {@link TieredRunner} and by compiling every script up front.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TieredBenchmark {
+
+    private static final MethodType MAIN = MethodType.methodType(void.class, String[].class);
+
+    @Param({"200"})
+    public int coldScripts;
+
+    @Param({"20000"})
+    public int hotRuns;
+
+    private List<String> cold;
+    private String hot;
+    private CompilerOptions options;
+    private PrintStream out;
+
+    @Setup
+    public void setup() {
+        cold = new ArrayList<>(coldScripts);
+        for (int i = 0; i < coldScripts; i++) {
+            cold.add(TinyProgramGenerator.generate(20, i));
+        }
+        hot = TinyProgramGenerator.loop(10, 100, 42L);
+        options = new CompilerOptions();
+        out = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void tiered() throws Throwable {
+        TieredRunner runner = new TieredRunner(options);
+        for (String script : cold) {
+            runner.load(script).run();
+        }
+        TieredProgram program = runner.load(hot);
+        for (int i = 0; i < hotRuns; i++) {
+            program.run();
+        }
+    }
+
+    @Benchmark
+    public void alwaysCompile() throws Throwable {
+        int count = 0;
+        for (String script : cold) {
+            compile(script, count++).invokeExact(new String[0]);
+        }
+        MethodHandle main = compile(hot, count);
+        for (int i = 0; i < hotRuns; i++) {
+            main.invokeExact(new String[0]);
+        }
+    }
+
+    private MethodHandle compile(String script, int count) throws Exception {
+        Class<?> klass = new DynamicClassLoader().define(options.compile(script, "tiny/Eager" + count).jiteClass);
+        return MethodHandles.publicLookup().findStatic(klass, "main", MAIN);
+    }
+
+}
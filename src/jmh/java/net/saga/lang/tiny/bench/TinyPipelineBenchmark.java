@@ -0,0 +1,271 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import static java.nio.CharBuffer.wrap;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import me.qmx.jitescript.JiteClass;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.compiler.CompilerContext;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.compiler.TinyCompiler;
+import net.saga.lang.tiny.optimizer.Optimizer;
+import net.saga.lang.tiny.parser.FlatTree;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import net.saga.lang.tiny.scanner.TableScanner;
+import net.saga.lang.tiny.scanner.Token;
+import net.saga.lang.tiny.scanner.TokenStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures every stage of the Tiny pipeline on its own and the pipeline as a
+ * whole. Each stage has its own state whose input is prepared once per trial
+ * by running the stages before it, so only the stage itself is timed.
+ *
+ * Run a single size with, for example,
+ * <code>java -jar target/benchmarks.jar TinyPipelineBenchmark -p lines=1000</code>
+ *
+ * Every stage runs at both sizes in the 2GB heap the fork is given.
+ *
+ * @author summers
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class TinyPipelineBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Source {
+
+        @Param({"1000", "100000"})
+        public int lines;
+
+        public String program;
+
+        @Setup
+        public void setup() {
+            prepare();
+        }
+
+        protected void prepare() {
+            program = TinyProgramGenerator.generate(lines);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Scanned extends Source {
+
+        public List<Token> tokens;
+
+        @Override
+        protected void prepare() {
+            super.prepare();
+            tokens = new Scanner().scan(wrap(program));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Packed extends Source {
+
+        public TokenStream tokens;
+
+        @Override
+        protected void prepare() {
+            super.prepare();
+            tokens = new Scanner().scanPacked(wrap(program));
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Parsed extends Scanned {
+
+        public Node parseTree;
+
+        @Override
+        protected void prepare() {
+            super.prepare();
+            parseTree = new Parser().parseProgram(tokens);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Analyzed extends Parsed {
+
+        public SymbolTable table;
+
+        @Override
+        protected void prepare() {
+            super.prepare();
+            table = Analyizer.buildSymbolTable(parseTree);
+            Analyizer.typeCheck(parseTree);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Optimized extends Analyzed {
+
+        @Override
+        protected void prepare() {
+            super.prepare();
+            parseTree = Optimizer.optimize(parseTree);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Flattened extends Scanned {
+
+        public FlatTree tree;
+        public SymbolTable table;
+
+        @Override
+        protected void prepare() {
+            super.prepare();
+            tree = new Parser().parseFlat(tokens);
+            table = Analyizer.analyze(tree);
+        }
+    }
+
+    /**
+     * A JiteClass can only be turned into bytes once, so every invocation of
+     * the define benchmark gets a freshly compiled class.
+     */
+    @State(Scope.Thread)
+    public static class Compiled {
+
+        public JiteClass jiteClass;
+
+        @Setup(Level.Invocation)
+        public void compile(Analyzed analyzed) {
+            jiteClass = TinyCompiler.compileProgram(analyzed.parseTree, new CompilerContext(), analyzed.table).jiteClass;
+        }
+    }
+
+    @Benchmark
+    public List<Token> scan(Source source) {
+        return new Scanner().scan(wrap(source.program));
+    }
+
+    @Benchmark
+    public List<Token> scanWithTable(Source source) {
+        return new TableScanner().scan(wrap(source.program));
+    }
+
+    @Benchmark
+    public Node parseProgram(Scanned scanned) {
+        return new Parser().parseProgram(scanned.tokens);
+    }
+
+    @Benchmark
+    public Node parsePacked(Packed packed) {
+        return new Parser().parseProgram(packed.tokens);
+    }
+
+    @Benchmark
+    public Node parseWhileScanning(Source source) {
+        return new Parser().parseProgram(new TableScanner(), wrap(source.program));
+    }
+
+    @Benchmark
+    public SymbolTable buildSymbolTable(Parsed parsed) {
+        return Analyizer.buildSymbolTable(parsed.parseTree);
+    }
+
+    @Benchmark
+    public Node typeCheck(Parsed parsed) {
+        Analyizer.typeCheck(parsed.parseTree);
+        return parsed.parseTree;
+    }
+
+    @Benchmark
+    public SymbolTable analyzeSeparately(Parsed parsed) {
+        SymbolTable table = Analyizer.buildSymbolTable(parsed.parseTree);
+        Analyizer.typeCheck(parsed.parseTree);
+        return table;
+    }
+
+    @Benchmark
+    public SymbolTable analyze(Parsed parsed) {
+        return Analyizer.analyze(parsed.parseTree);
+    }
+
+    @Benchmark
+    public CompilerContext compileProgram(Analyzed analyzed) {
+        return TinyCompiler.compileProgram(analyzed.parseTree, new CompilerContext(), analyzed.table);
+    }
+
+    @Benchmark
+    public CompilerContext compileRelease(Analyzed analyzed) {
+        return TinyCompiler.compileProgram(analyzed.parseTree, new CompilerContext().setDebug(false), analyzed.table);
+    }
+
+    @Benchmark
+    public CompilerContext compileOptimized(Optimized optimized) {
+        return TinyCompiler.compileProgram(optimized.parseTree, new CompilerContext(), optimized.table);
+    }
+
+    @Benchmark
+    public FlatTree parseFlat(Scanned scanned) {
+        return new Parser().parseFlat(scanned.tokens);
+    }
+
+    @Benchmark
+    public FlatTree typeCheckFlat(Flattened flattened) {
+        Analyizer.typeCheck(flattened.tree);
+        return flattened.tree;
+    }
+
+    @Benchmark
+    public SymbolTable analyzeFlat(Flattened flattened) {
+        return Analyizer.analyze(flattened.tree);
+    }
+
+    @Benchmark
+    public CompilerContext compileFlat(Flattened flattened) {
+        return TinyCompiler.compileProgram(flattened.tree, new CompilerContext(), flattened.table);
+    }
+
+    @Benchmark
+    public Class<?> define(Compiled compiled) {
+        return new DynamicClassLoader().define(compiled.jiteClass);
+    }
+
+    @Benchmark
+    public Class<?> pipeline(Source source) {
+        List<Token> tokens = new Scanner().scan(wrap(source.program));
+        FlatTree parseTree = new Parser().parseFlat(tokens);
+        SymbolTable table = Analyizer.analyze(parseTree);
+        CompilerContext context = TinyCompiler.compileProgram(parseTree, new CompilerContext(), table);
+        return new DynamicClassLoader().define(context.jiteClass);
+    }
+
+}
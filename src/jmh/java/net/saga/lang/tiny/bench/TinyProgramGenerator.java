@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.bench;
+
+import java.util.Random;
+
+/**
+ * Generates syntactically and semantically valid Tiny programs of a given
+ * number of lines. The programs never read from the console, every loop
+ * terminates, and every variable is assigned before it is used so the output
+ * of TinyCompiler passes the verifier.
+ *
+ * @author summers
+ */
+public final class TinyProgramGenerator {
+
+    private static final int VARIABLES = 26;
+
+    private TinyProgramGenerator() {
+    }
+
+    public static String generate(int lines) {
+        return generate(lines, 42L);
+    }
+
+    public static String generate(int lines, long seed) {
+        if (lines < 2) {
+            throw new IllegalArgumentException("A generated program needs at least two lines");
+        }
+        Random random = new Random(seed);
+        StringBuilder program = new StringBuilder(lines * 24);
+        int variables = Math.min(VARIABLES, lines - 1);
+        int remaining = lines - 1;
+
+        for (int i = 0; i < variables; i++) {
+            program.append(variable(i)).append(" := ").append(i + 1).append(";\n");
+            remaining--;
+        }
+
+        while (remaining > 0) {
+            int pick = random.nextInt(10);
+            if (remaining >= 5 && pick < 2) {
+                repeatBlock(program, random, variables);
+                remaining -= 5;
+            } else if (remaining >= 5 && pick < 4) {
+                ifBlock(program, random, variables);
+                remaining -= 5;
+            } else {
+                program.append(assignment(random, variables)).append(";\n");
+                remaining--;
+            }
+        }
+
+        program.append("write ").append(variable(0)).append('\n');
+        return program.toString();
+    }
+
+    /**
+     * Generates a program that is one REPEAT loop around bodyLines random
+     * assignments, run the given number of times.
+     */
+    public static String loop(int bodyLines, int iterations, long seed) {
+        Random random = new Random(seed);
+        StringBuilder program = new StringBuilder(bodyLines * 40);
+        for (int i = 0; i < VARIABLES; i++) {
+            program.append(variable(i)).append(" := ").append(i + 1).append(";\n");
+        }
+        program.append("counter := ").append(iterations).append(";\n")
+                .append("repeat\n");
+        for (int i = 0; i < bodyLines; i++) {
+            program.append("  ").append(assignment(random, VARIABLES)).append(";\n");
+        }
+        program.append("  counter := counter - 1\n")
+                .append("until counter = 0;\n")
+                .append("write ").append(variable(0)).append('\n');
+        return program.toString();
+    }
+
+    /**
+     * Generates the same loop as {@link #loop(int, int, long)}, except that
+     * every variable and the counter are read before the loop. Their
+     * starting values are only known at run time, so a compiler cannot fold
+     * the loop away. Reads come in variable order, then the counter. Every
+     * variable is written at the end, so no assignment is dead code.
+     */
+    public static String readingLoop(int bodyLines, long seed) {
+        Random random = new Random(seed);
+        StringBuilder program = new StringBuilder(bodyLines * 40);
+        for (int i = 0; i < VARIABLES; i++) {
+            program.append("read ").append(variable(i)).append(";\n");
+        }
+        program.append("read counter;\n")
+                .append("repeat\n");
+        for (int i = 0; i < bodyLines; i++) {
+            program.append("  ").append(assignment(random, VARIABLES)).append(";\n");
+        }
+        program.append("  counter := counter - 1\n")
+                .append("until counter = 0");
+        for (int i = 0; i < VARIABLES; i++) {
+            program.append(";\nwrite ").append(variable(i));
+        }
+        return program.append('\n').toString();
+    }
+
+    /**
+     * @return how many variables {@link #readingLoop(int, long)} reads
+     * before the counter
+     */
+    public static int variables() {
+        return VARIABLES;
+    }
+
+    private static void repeatBlock(StringBuilder program, Random random, int variables) {
+        String target = variable(random.nextInt(variables));
+        program.append("counter := ").append(2 + random.nextInt(8)).append(";\n")
+                .append("repeat\n")
+                .append("  ").append(target).append(" := ").append(target).append(" + counter * ").append(1 + random.nextInt(9)).append(";\n")
+                .append("  counter := counter - 1\n")
+                .append("until counter = 0;\n");
+    }
+
+    private static void ifBlock(StringBuilder program, Random random, int variables) {
+        program.append("if ").append(variable(random.nextInt(variables))).append(" < ").append(variable(random.nextInt(variables))).append(" then\n")
+                .append("  ").append(assignment(random, variables)).append('\n')
+                .append("else\n")
+                .append("  ").append(assignment(random, variables)).append('\n')
+                .append("end;\n");
+    }
+
+    private static String assignment(Random random, int variables) {
+        return variable(random.nextInt(variables)) + " := "
+                + variable(random.nextInt(variables)) + " + " + (1 + random.nextInt(9)) + " * "
+                + variable(random.nextInt(variables)) + " - "
+                + variable(random.nextInt(variables)) + " / " + (1 + random.nextInt(9));
+    }
+
+    static String variable(int index) {
+        StringBuilder name = new StringBuilder("v");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+
+}
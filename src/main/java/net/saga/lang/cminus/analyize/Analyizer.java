@@ -29,127 +29,158 @@ public class Analyizer {
         SymbolTable table = new SymbolTable();
         traverse(programNode,
                 (Node node) -> {
-                    String name = node.getName();
-                    if (name != null && !name.isEmpty()) {
-                        int memoryLoc = 0;
-
-                        if (table.get(name) == null) {
-                            memoryLoc = table.size();
-                        } else {
-                            memoryLoc = table.get(name).get(0).memoryLocation;
-                        }
-                        SymbolTableEntry entry = new SymbolTableEntry(node.getName(), memoryLoc, node.getLineNumber());
-                        table.put(node.getName(), entry);
-                    }
+                    recordSymbol(table, node);
                     return null;
                 },
                 (Node node) -> null);
         return table;
     }
 
+    /**
+     * Builds the symbol table and type checks the tree in a single walk.
+     * Equivalent to calling buildSymbolTable followed by typeCheck.
+     *
+     * @param programNode the root of the program
+     * @return the symbol table of the program
+     */
+    public static SymbolTable analyze(Node programNode) {
+        Analysis analysis = new Analysis();
+        TreeWalker.walk(programNode, analysis);
+        return analysis.table;
+    }
+
     public static void traverse(Node programNode, Function<Node, Void> preProc, Function<Node, Void> postProc) {
-        if (programNode != null) {
-            preProc.apply(programNode);
-            for (int i = 0; i < Node.MAX_CHILDREN; i++) {
-                traverse(programNode.getChild(i), preProc, postProc);
+        TreeWalker.walk(programNode, new TreeWalker.Visitor<Node>() {
+            @Override
+            public void preVisit(Node node) {
+                preProc.apply(node);
             }
-            postProc.apply(programNode);
-            traverse(programNode.getNext(), preProc, postProc);
-        }
+
+            @Override
+            public void postVisit(Node node) {
+                postProc.apply(node);
+            }
+        });
     }
 
     public static void typeCheck(Node programNode) {
         traverse(programNode,
                 (Node node) -> null,
                 (Node node) -> {
-                    Node child1 = node.getChild(0);
-                    Node child2 = node.getChild(1);
-                    Node child3 = node.getChild(3);
-
-                    switch (node.getNodeKind()) {
-
-                        case StatementNode:
-                            switch (node.getStatementKind()) {
-                                case IF:
-                                case WHILE:
-                                    if (child1.getNodeType() != BOOLEAN) {
-                                        throw new SemanticException("If test is not boolean" + child1.toString());
-                                    }
-                                    break;
-                                case COMPOUND:
-                                    break;
-                                case RETURN:
-                                    if (node.getChild(0) != null) {
-                                        if (child1.getNodeType() != INTEGER) {
-                                            throw new SemanticException("return type not int.  " + child1.toString());
-                                        }
-                                    }
-                                    break;//??
-                                default:
-                                    throw new AssertionError(node.getStatementKind().name());
+                    checkType(node);
+                    return null;
+                }
+        );
 
+    }
+
+    private static void recordSymbol(SymbolTable table, Node node) {
+        String name = node.getName();
+        if (name != null && !name.isEmpty()) {
+            node.setSymbol(table.reference(name, node.getLineNumber()));
+        }
+    }
+
+    private static void checkType(Node node) {
+        Node child1 = node.getChild(0);
+        Node child2 = node.getChild(1);
+        Node child3 = node.getChild(3);
+
+        switch (node.getNodeKind()) {
+
+            case StatementNode:
+                switch (node.getStatementKind()) {
+                    case IF:
+                    case WHILE:
+                        if (child1.getNodeType() != BOOLEAN) {
+                            throw new SemanticException("If test is not boolean" + child1.toString());
+                        }
+                        break;
+                    case COMPOUND:
+                        break;
+                    case RETURN:
+                        if (node.getChild(0) != null) {
+                            if (child1.getNodeType() != INTEGER) {
+                                throw new SemanticException("return type not int.  " + child1.toString());
                             }
-                            break;
-                        case ExpressionNode:
-                            switch (node.getExpressionKind()) {
-                                case OperatorExpression:
-
-                                    switch (node.getOperationAttribute()) {
-
-                                        case PLUS:
-                                        case MINUS:
-                                        case MULTIPLY:
-                                        case DIVIDE:
-                                        case ASSIGN:
-                                            if (child1.getNodeType() != INTEGER
-                                            || child2.getNodeType() != INTEGER) {
-                                                throw new SemanticException("Operators are not integers" + node.toString());
-                                            }
-                                            node.setNodeType(INTEGER);
-                                            break;
-                                        case LT:
-                                        case GT:
-                                        case LTE:
-                                        case GTE:
-                                        case EQ:
-                                            if (child1.getNodeType() != INTEGER
-                                            || child2.getNodeType() != INTEGER) {
-                                                throw new SemanticException("Operators are not integers" + node.toString());
-                                            }
-                                            node.setNodeType(BOOLEAN);
-                                            break;
-                                        default:
-                                            throw new SemanticException("Whoopse@" + node.toString());
-                                    }
-                                    break;
-                                    case AssignmentExpression: 
-                                        if (child2.getNodeType() != INTEGER) {
-                                            throw new SemanticException("Only interger assignment is supported");
-                                        }
-                                case CallExpression:
-                                    
-                                    break;
-                                case ConstantExpression:
-                                case IdentifierExpression:
-                                    node.setNodeType(NodeType.INTEGER);
-                                    break;
-                                default:
-                                    throw new AssertionError(node.getExpressionKind().name());
-                            }
-                            break;
-                        case DeclarationNode:
-                            if (node.getDeclarationKind().equals(DeclarationKind.VARIABLE)) {
-                                //??
-                            }
-                            break;
-                        default:
-                            throw new AssertionError(node.getNodeKind().name());
+                        }
+                        break;//??
+                    default:
+                        throw new AssertionError(node.getStatementKind().name());
 
-                    }
-                    return null;
                 }
-        );
+                break;
+            case ExpressionNode:
+                switch (node.getExpressionKind()) {
+                    case OperatorExpression:
+
+                        switch (node.getOperationAttribute()) {
+
+                            case PLUS:
+                            case MINUS:
+                            case MULTIPLY:
+                            case DIVIDE:
+                            case ASSIGN:
+                                if (child1.getNodeType() != INTEGER
+                                || child2.getNodeType() != INTEGER) {
+                                    throw new SemanticException("Operators are not integers" + node.toString());
+                                }
+                                node.setNodeType(INTEGER);
+                                break;
+                            case LT:
+                            case GT:
+                            case LTE:
+                            case GTE:
+                            case EQ:
+                                if (child1.getNodeType() != INTEGER
+                                || child2.getNodeType() != INTEGER) {
+                                    throw new SemanticException("Operators are not integers" + node.toString());
+                                }
+                                node.setNodeType(BOOLEAN);
+                                break;
+                            default:
+                                throw new SemanticException("Whoopse@" + node.toString());
+                        }
+                        break;
+                        case AssignmentExpression: 
+                            if (child2.getNodeType() != INTEGER) {
+                                throw new SemanticException("Only interger assignment is supported");
+                            }
+                    case CallExpression:
+                        
+                        break;
+                    case ConstantExpression:
+                    case IdentifierExpression:
+                        node.setNodeType(NodeType.INTEGER);
+                        break;
+                    default:
+                        throw new AssertionError(node.getExpressionKind().name());
+                }
+                break;
+            case DeclarationNode:
+                if (node.getDeclarationKind().equals(DeclarationKind.VARIABLE)) {
+                    //??
+                }
+                break;
+            default:
+                throw new AssertionError(node.getNodeKind().name());
+
+        }
+    }
+
+    private static final class Analysis implements TreeWalker.Visitor<Node> {
 
+        private final SymbolTable table = new SymbolTable();
+
+        @Override
+        public void preVisit(Node node) {
+            recordSymbol(table, node);
+        }
+
+        @Override
+        public void postVisit(Node node) {
+            checkType(node);
+        }
     }
 
 }
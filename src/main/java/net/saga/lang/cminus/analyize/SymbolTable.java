@@ -18,45 +18,152 @@ package net.saga.lang.cminus.analyize;
 
 import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+/**
+ * Maps each variable to its references ordered by line. The first reference
+ * of a variable fixes its memory location.
+ *
+ * Every variable also gets a dense symbol id in the order it was first seen.
+ * The analyzer stores the id on the node, so later passes read the address
+ * and first line of a variable from flat arrays instead of hashing its name.
+ *
+ * A table is filled by a single analysis pass and is not thread safe.
+ */
 public class SymbolTable extends AbstractMap<String, List<SymbolTableEntry>> {
 
-    private final HashMap<String, List<SymbolTableEntry>> map;
-
+    private final HashMap<String, References> map;
+    private final Map<String, List<SymbolTableEntry>> view;
+    private References[] symbols = new References[16];
+    private int[] addresses = new int[16];
+    private int[] firstLines = new int[16];
 
     public SymbolTable() {
         this.map = new HashMap<>(100);
+        this.view = Collections.unmodifiableMap(map);
     }
-    
-    
-    
+
     @Override
     public Set<Entry<String, List<SymbolTableEntry>>> entrySet() {
-        return map.entrySet();
+        return view.entrySet();
+    }
+
+    @Override
+    public List<SymbolTableEntry> get(Object key) {
+        return map.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return map.size();
     }
 
-    public synchronized List<SymbolTableEntry> put(String key, SymbolTableEntry value) {
-        List<SymbolTableEntry> entries = map.get(key);
+    /**
+     * Records a reference to a variable. A variable seen for the first time
+     * gets the next free memory location.
+     *
+     * @param name the variable
+     * @param lineNumber the line of the reference
+     * @return the symbol id of the variable
+     */
+    public int reference(String name, int lineNumber) {
+        References entries = map.get(name);
         if (entries == null) {
-            entries = new ArrayList<>();
-            map.put(key, entries);
+            entries = define(name, map.size());
         }
-        
-        entries.add(value);
-        Collections.sort(entries);
+        SymbolTableEntry entry = new SymbolTableEntry(name, addresses[entries.symbol], lineNumber);
+        append(entries, entry);
+        return entries.symbol;
+    }
 
-        return new ArrayList<>(entries);
-        
+    public void put(String key, SymbolTableEntry value) {
+        References entries = map.get(key);
+        if (entries == null) {
+            entries = define(key, value.memoryLocation);
+        }
+        append(entries, value);
     }
 
     public int getAddress(String name) {
-        return get(name).get(0).memoryLocation;
+        return addresses[map.get(name).symbol];
+    }
+
+    /**
+     * @param name a variable
+     * @return the symbol id of the variable, or -1 if it is not in the table
+     */
+    public int getSymbol(String name) {
+        References entries = map.get(name);
+        return entries == null ? -1 : entries.symbol;
     }
-    
-    
-    
+
+    public int getAddress(int symbol) {
+        return addresses[symbol];
+    }
+
+    /**
+     * @param symbol a symbol id
+     * @return the line of the earliest reference to the variable
+     */
+    public int getFirstLine(int symbol) {
+        return firstLines[symbol];
+    }
+
+    public List<SymbolTableEntry> get(int symbol) {
+        return symbols[symbol];
+    }
+
+    private References define(String name, int address) {
+        int symbol = map.size();
+        if (symbol == symbols.length) {
+            symbols = Arrays.copyOf(symbols, symbol * 2);
+            addresses = Arrays.copyOf(addresses, symbol * 2);
+            firstLines = Arrays.copyOf(firstLines, symbol * 2);
+        }
+        References entries = new References(symbol);
+        symbols[symbol] = entries;
+        addresses[symbol] = address;
+        firstLines[symbol] = Integer.MAX_VALUE;
+        map.put(name, entries);
+        return entries;
+    }
+
+    private void append(References entries, SymbolTableEntry entry) {
+        entries.append(entry);
+        if (entry.lineNumber < firstLines[entries.symbol]) {
+            firstLines[entries.symbol] = entry.lineNumber;
+        }
+    }
+
+    /**
+     * References arrive in source order, so appending keeps them sorted and
+     * only an out of order line has to be moved back into place.
+     */
+    private static final class References extends ArrayList<SymbolTableEntry> {
+
+        private final int symbol;
+
+        private References(int symbol) {
+            this.symbol = symbol;
+        }
+
+        private void append(SymbolTableEntry entry) {
+            int index = size();
+            while (index > 0 && get(index - 1).lineNumber > entry.lineNumber) {
+                index--;
+            }
+            add(index, entry);
+        }
+    }
+
 }
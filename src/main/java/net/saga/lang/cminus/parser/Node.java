@@ -25,12 +25,14 @@ import net.saga.lang.cminus.scanner.TokenType;
 public class Node {
 
     public static final int MAX_CHILDREN = 3;
+    public static final int NO_SYMBOL = -1;
 
     private final ExpressionKind expressionKind;
     private final StatementKind statementKind;
     private final DeclarationKind declarationKind;
     private final NodeKind nodeKind;
     private NodeType nodeType = VOID;
+    private int symbol = NO_SYMBOL;
     private final TokenType operationAttribute;
     private final int lineNumber;
     private final int value;
@@ -206,6 +208,14 @@ public class Node {
         this.nodeType = nodeType;
     }
 
+    public int getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(int symbol) {
+        this.symbol = symbol;
+    }
+
     public DeclarationKind getDeclarationKind() {
         return declarationKind;
     }
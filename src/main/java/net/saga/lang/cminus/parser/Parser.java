@@ -15,10 +15,11 @@
  */
 package net.saga.lang.cminus.parser;
 
+import java.nio.CharBuffer;
 import java.util.Iterator;
-import java.util.List;
 import me.qmx.jitescript.internal.org.objectweb.asm.Opcodes;
 import static net.saga.lang.cminus.parser.ExpressionKind.CallExpression;
+import net.saga.lang.cminus.scanner.Scanner;
 import net.saga.lang.cminus.scanner.Token;
 import net.saga.lang.cminus.scanner.TokenType;
 import static net.saga.lang.cminus.parser.ExpressionKind.ConstantExpression;
@@ -91,7 +92,7 @@ public class Parser {
     private Iterator<Token> tokensIter;
     private Token token;
 
-    public void setTokens(List<Token> tokens) {
+    public void setTokens(Iterable<Token> tokens) {
 
         tokensIter = tokens.iterator();
     }
@@ -104,25 +105,37 @@ public class Parser {
         }
     }
 
-    public Node parseProgram(List<Token> tokens) {
+    public Node parseProgram(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
         return parse();
     }
 
-    public Node parseStatement(List<Token> tokens) {
+    /**
+     * Parses a program while the scanner reads it. Tokens are pulled from the
+     * scanner one at a time as the parser needs them.
+     *
+     * @param scanner the scanner to pull tokens from
+     * @param buffer the program source
+     * @return the root of the parse tree
+     */
+    public Node parseProgram(Scanner scanner, CharBuffer buffer) {
+        return parseProgram(scanner.tokens(buffer));
+    }
+
+    public Node parseStatement(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
         return statementList();
     }
 
-    public Node parseExpression(List<Token> tokens) {
+    public Node parseExpression(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
         return expression();
     }
 
-    public Node parseDeclaration(List<Token> tokens) {
+    public Node parseDeclaration(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
         return declarationList();
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.cminus.scanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A source file read through a memory mapping.
+ *
+ * The bytes of the file are never copied or decoded up front. Each byte is
+ * turned into a char as the scanner reads it, so the file costs no heap and
+ * pages are only loaded once the scanner reaches them. Bytes are read as
+ * ISO-8859-1, which agrees with ASCII and UTF-8 for every character that can
+ * appear in a token.
+ */
+public class MappedSource implements CharSequence {
+
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int length;
+
+    private MappedSource(ByteBuffer bytes, int offset, int length) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    /**
+     * Maps a file and returns a buffer the scanners can read it from.
+     *
+     * @param path the source file
+     * @return a read only buffer over the mapped file
+     * @throws IOException if the file can not be mapped
+     */
+    public static CharBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to map");
+            }
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return CharBuffer.wrap(new MappedSource(mapped, 0, (int) size));
+        }
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+        }
+        return (char) (bytes.get(offset + index) & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+        }
+        return new MappedSource(bytes, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        byte[] copy = new byte[length];
+        for (int i = 0; i < length; i++) {
+            copy[i] = bytes.get(offset + i);
+        }
+        return new String(copy, StandardCharsets.ISO_8859_1);
+    }
+
+}
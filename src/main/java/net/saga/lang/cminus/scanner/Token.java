@@ -16,7 +16,6 @@
 package net.saga.lang.cminus.scanner;
 
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -24,8 +23,6 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Token {
 
-    private static ConcurrentHashMap<Token, Token> tokens = new ConcurrentHashMap<>(100);
-    
     private final TokenType mType;
     private final int mValue;
     private final String mName;
@@ -65,22 +62,16 @@ public class Token {
     }
     
     public static Token newInstance(TokenType type, int lineNumber) {
-        Token newToken = new Token(type, lineNumber);
-        tokens.putIfAbsent(newToken, newToken);
-        return tokens.get(newToken);
+        return new Token(type, lineNumber);
     }
     
     
     public static Token newInstance(String name, int lineNumber) {
-        Token newToken = new Token(TokenType.IDENTIFIER, name, lineNumber);
-        tokens.putIfAbsent(newToken, newToken);
-        return tokens.get(newToken);
+        return new Token(TokenType.IDENTIFIER, name, lineNumber);
     }
     
     public static Token newInstance(int value, int lineNumber) {
-        Token newToken = new Token(TokenType.NUMBER, value, lineNumber);
-        tokens.putIfAbsent(newToken, newToken);
-        return tokens.get(newToken);
+        return new Token(TokenType.NUMBER, value, lineNumber);
     }
 
     @Override
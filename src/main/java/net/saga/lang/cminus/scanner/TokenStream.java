@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.cminus.scanner;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list of tokens packed into parallel primitive arrays.
+ *
+ * A token is stored as its type ordinal, its line and either its number value
+ * or the index of its name in a side table of identifier names. Tokens are
+ * only created again when the stream is iterated, so a scanned file costs a
+ * few bytes per token instead of a Token object per token.
+ */
+public class TokenStream implements Iterable<Token> {
+
+    private static final TokenType[] TYPES = TokenType.values();
+
+    private byte[] types;
+    private int[] values;
+    private int[] lines;
+    private int size = 0;
+
+    private String[] names = new String[16];
+    private int nameCount = 0;
+    private final HashMap<String, Integer> nameIndexes = new HashMap<>();
+
+    public TokenStream() {
+        this(100);
+    }
+
+    public TokenStream(int capacity) {
+        capacity = Math.max(capacity, 1);
+        types = new byte[capacity];
+        values = new int[capacity];
+        lines = new int[capacity];
+    }
+
+    public void add(Token token) {
+        if (size == types.length) {
+            int capacity = types.length + (types.length >> 1) + 1;
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+        }
+        TokenType type = token.getType();
+        types[size] = (byte) type.ordinal();
+        lines[size] = token.getLineNumber();
+        if (type == TokenType.IDENTIFIER) {
+            values[size] = nameIndex(token.getName());
+        } else {
+            values[size] = token.getValue();
+        }
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public TokenType getType(int index) {
+        checkIndex(index);
+        return TYPES[types[index]];
+    }
+
+    public int getValue(int index) {
+        checkIndex(index);
+        return TYPES[types[index]] == TokenType.IDENTIFIER ? 0 : values[index];
+    }
+
+    public String getName(int index) {
+        checkIndex(index);
+        return TYPES[types[index]] == TokenType.IDENTIFIER ? names[values[index]] : "";
+    }
+
+    public int getLineNumber(int index) {
+        checkIndex(index);
+        return lines[index];
+    }
+
+    public Token get(int index) {
+        checkIndex(index);
+        TokenType type = TYPES[types[index]];
+        switch (type) {
+            case IDENTIFIER:
+                return Token.newInstance(names[values[index]], lines[index]);
+            case NUMBER:
+                return Token.newInstance(values[index], lines[index]);
+            default:
+                return Token.newInstance(type, lines[index]);
+        }
+    }
+
+    @Override
+    public Iterator<Token> iterator() {
+        return new Iterator<Token>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Token next() {
+                if (index >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(index++);
+            }
+        };
+    }
+
+    private int nameIndex(String name) {
+        Integer index = nameIndexes.get(name);
+        if (index == null) {
+            if (nameCount == names.length) {
+                names = Arrays.copyOf(names, nameCount * 2);
+            }
+            index = nameCount;
+            names[nameCount++] = name;
+            nameIndexes.put(name, index);
+        }
+        return index;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+}
@@ -15,129 +15,179 @@
  */
 package net.saga.lang.tiny.analyize;
 
-import java.util.List;
 import java.util.function.Function;
 import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.NodeTree;
 import net.saga.lang.tiny.parser.NodeType;
+import net.saga.lang.tiny.parser.SyntaxTree;
 import static net.saga.lang.tiny.parser.NodeType.BOOLEAN;
 import static net.saga.lang.tiny.parser.NodeType.INTEGER;
 
 public class Analyizer {
 
     public static SymbolTable buildSymbolTable(Node programNode) {
+        return buildSymbolTable(NodeTree.of(programNode));
+    }
+
+    public static SymbolTable buildSymbolTable(SyntaxTree tree) {
         SymbolTable table = new SymbolTable();
-        traverse(programNode,
-                (Node node) -> {
-                    String name = node.getName();
-                    if (name != null && !name.isEmpty()) {
-                        int memoryLoc = 0;
-
-                        if (table.get(name) == null) {
-                            memoryLoc = table.size();
-                        } else {
-                            memoryLoc = table.get(name).get(0).memoryLocation;
-                        }
-                        SymbolTableEntry entry = new SymbolTableEntry(node.getName(), memoryLoc, node.getLineNumber());
-                        table.put(node.getName(), entry);
-                    }
-                    return null;
-                },
-                (Node node) -> null);
+        TreeWalker.walk(tree, tree.root(), new TreeWalker.Visitor() {
+            @Override
+            public void preVisit(int node) {
+                recordSymbol(table, tree, node);
+            }
+        });
         return table;
     }
 
+    /**
+     * Builds the symbol table and type checks the tree in a single walk.
+     * Equivalent to calling buildSymbolTable followed by typeCheck.
+     *
+     * @param programNode the root of the program
+     * @return the symbol table of the program
+     */
+    public static SymbolTable analyze(Node programNode) {
+        return analyze(NodeTree.of(programNode));
+    }
+
+    /**
+     * @see #analyze(Node)
+     */
+    public static SymbolTable analyze(SyntaxTree tree) {
+        Analysis analysis = new Analysis(tree);
+        TreeWalker.walk(tree, tree.root(), analysis);
+        return analysis.table;
+    }
+
     public static void traverse(Node programNode, Function<Node, Void> preProc, Function<Node, Void> postProc) {
-        if (programNode != null) {
-            preProc.apply(programNode);
-            for (int i = 0; i < Node.MAX_CHILDREN; i++) {
-                traverse(programNode.getChild(i), preProc, postProc);
+        NodeTree tree = NodeTree.of(programNode);
+        TreeWalker.walk(tree, tree.root(), new TreeWalker.Visitor() {
+            @Override
+            public void preVisit(int node) {
+                preProc.apply(tree.node(node));
             }
-            postProc.apply(programNode);
-            traverse(programNode.getNext(), preProc, postProc);
-        }
+
+            @Override
+            public void postVisit(int node) {
+                postProc.apply(tree.node(node));
+            }
+        });
     }
 
     public static void typeCheck(Node programNode) {
-        traverse(programNode,
-                (Node node) -> null,
-                (Node node) -> {
-                    Node child1 = node.getChild(0);
-                    Node child2 = node.getChild(1);
-                    Node child3 = node.getChild(3);
-
-                    switch (node.getNodeKind()) {
-
-                        case StatementNode:
-                            switch (node.getStatementKind()) {
-                                case IF:
-                                    if (child1.getNodeType() != BOOLEAN) {
-                                        throw new SemanticException("If test is not boolean" + child1.toString());
-                                    }
-                                    break;
-                                case REPEAT:
-                                    if (child2.getNodeType() != BOOLEAN) {
-                                        throw new SemanticException("Until test is not boolean" + child1.toString());
-                                    }
-                                    break;
-                                case WRITE:
-                                case ASSIGN:
-
-                                    if (child1.getNodeType() != INTEGER) {
-                                        throw new SemanticException("Child is not integers" + child1.toString());
-                                    }
-                                    break;
-                                case READ:
-                                    break;//variable is assumed to be integer
-                                default:
-                                    throw new AssertionError(node.getStatementKind().name());
-
-                            }
-                            break;
-                        case ExpressionNode:
-                            switch (node.getExpressionKind()) {
-                                case OperatorExpression:
-
-                                    switch (node.getOperationAttribute()) {
-
-                                        case ADDITION:
-                                        case SUBTRACTION:                                            
-                                        case INT_DIVISION:
-                                        case MULTIPLICATION:
-
-                                            if (child1.getNodeType() != INTEGER
-                                            || child2.getNodeType() != INTEGER) {
-                                                throw new SemanticException("Operators are not integers" + node.toString());
-                                            }
-                                            node.setNodeType(INTEGER);
-                                            break;
-                                        case LT:
-                                        case EQ:
-                                            if (child1.getNodeType() != INTEGER
-                                            || child2.getNodeType() != INTEGER) {
-                                                throw new SemanticException("Operators are not integers" + node.toString());
-                                            }
-                                            node.setNodeType(BOOLEAN);
-                                            break;
-                                        default:
-                                            throw new SemanticException("Whoopse@" + node.toString());
-                                    }
-                                    break;
-                                case ConstantExpression:
-                                case IdentifierExpression:
-                                    node.setNodeType(NodeType.INTEGER);
-                                    break;
-                                default:
-                                    throw new AssertionError(node.getExpressionKind().name());
-                            }
-                            break;
-                        default:
-                            throw new AssertionError(node.getNodeKind().name());
-
-                    }
-                    return null;
+        typeCheck(NodeTree.of(programNode));
+    }
+
+    public static void typeCheck(SyntaxTree tree) {
+        TreeWalker.walk(tree, tree.root(), new TreeWalker.Visitor() {
+            @Override
+            public void postVisit(int node) {
+                checkType(tree, node);
+            }
+        });
+    }
+
+    private static void recordSymbol(SymbolTable table, SyntaxTree tree, int node) {
+        String name = tree.getName(node);
+        if (name != null && !name.isEmpty()) {
+            tree.setSymbol(node, table.reference(name, tree.getLineNumber(node)));
+        }
+    }
+
+    private static void checkType(SyntaxTree tree, int node) {
+        int child1 = tree.getChild(node, 0);
+        int child2 = tree.getChild(node, 1);
+
+        switch (tree.getNodeKind(node)) {
+
+            case StatementNode:
+                switch (tree.getStatementKind(node)) {
+                    case IF:
+                        if (tree.getNodeType(child1) != BOOLEAN) {
+                            throw new SemanticException("If test is not boolean" + tree.describe(child1));
+                        }
+                        break;
+                    case REPEAT:
+                        if (tree.getNodeType(child2) != BOOLEAN) {
+                            throw new SemanticException("Until test is not boolean" + tree.describe(child1));
+                        }
+                        break;
+                    case WRITE:
+                    case ASSIGN:
+
+                        if (tree.getNodeType(child1) != INTEGER) {
+                            throw new SemanticException("Child is not integers" + tree.describe(child1));
+                        }
+                        break;
+                    case READ:
+                        break;//variable is assumed to be integer
+                    default:
+                        throw new AssertionError(tree.getStatementKind(node).name());
+
                 }
-        );
+                break;
+            case ExpressionNode:
+                switch (tree.getExpressionKind(node)) {
+                    case OperatorExpression:
+
+                        switch (tree.getOperationAttribute(node)) {
+
+                            case ADDITION:
+                            case SUBTRACTION:                                            
+                            case INT_DIVISION:
+                            case MULTIPLICATION:
+
+                                if (tree.getNodeType(child1) != INTEGER
+                                || tree.getNodeType(child2) != INTEGER) {
+                                    throw new SemanticException("Operators are not integers" + tree.describe(node));
+                                }
+                                tree.setNodeType(node, INTEGER);
+                                break;
+                            case LT:
+                            case EQ:
+                                if (tree.getNodeType(child1) != INTEGER
+                                || tree.getNodeType(child2) != INTEGER) {
+                                    throw new SemanticException("Operators are not integers" + tree.describe(node));
+                                }
+                                tree.setNodeType(node, BOOLEAN);
+                                break;
+                            default:
+                                throw new SemanticException("Whoopse@" + tree.describe(node));
+                        }
+                        break;
+                    case ConstantExpression:
+                    case IdentifierExpression:
+                        tree.setNodeType(node, NodeType.INTEGER);
+                        break;
+                    default:
+                        throw new AssertionError(tree.getExpressionKind(node).name());
+                }
+                break;
+            default:
+                throw new AssertionError(tree.getNodeKind(node).name());
 
+        }
+    }
+
+    private static final class Analysis implements TreeWalker.Visitor {
+
+        private final SymbolTable table = new SymbolTable();
+        private final SyntaxTree tree;
+
+        private Analysis(SyntaxTree tree) {
+            this.tree = tree;
+        }
+
+        @Override
+        public void preVisit(int node) {
+            recordSymbol(table, tree, node);
+        }
+
+        @Override
+        public void postVisit(int node) {
+            checkType(tree, node);
+        }
     }
 
 }
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.analyize;
+
+import java.util.Arrays;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.SyntaxTree;
+
+/**
+ * Walks a parse tree with an explicit stack instead of recursion.
+ *
+ * Nodes are visited in the same order as a recursive walk: a node is
+ * pre-visited, then its children are walked, then it is post-visited and
+ * finally its next sibling is walked. A sibling is only pushed once the node
+ * before it is finished, so any number of sequential statements is walked
+ * with a stack of constant size, and deep nesting only grows the explicit
+ * stack on the heap. Nodes are indexes into a {@link SyntaxTree}, so a walk
+ * allocates nothing but its stack.
+ */
+public final class TreeWalker {
+
+    /**
+     * Hooks called during a walk with the index of a node. Both do nothing
+     * unless overridden.
+     */
+    public interface Visitor {
+
+        default void preVisit(int node) {
+        }
+
+        default void postVisit(int node) {
+        }
+    }
+
+    private static final byte ENTER = 0;
+    private static final byte EXIT = 1;
+
+    private TreeWalker() {
+    }
+
+    public static void walk(SyntaxTree tree, int root, Visitor visitor) {
+        walk(tree, root, visitor, true);
+    }
+
+    /**
+     * Walks a node and its descendants, but not the siblings that follow it.
+     */
+    public static void walkSubtree(SyntaxTree tree, int root, Visitor visitor) {
+        walk(tree, root, visitor, false);
+    }
+
+    private static void walk(SyntaxTree tree, int root, Visitor visitor, boolean siblings) {
+        if (root == SyntaxTree.NONE) {
+            return;
+        }
+        int[] nodes = new int[16];
+        byte[] phases = new byte[16];
+        int top = 0;
+        nodes[top] = root;
+        phases[top] = ENTER;
+        top++;
+
+        while (top > 0) {
+            top--;
+            int node = nodes[top];
+
+            if (phases[top] == ENTER) {
+                visitor.preVisit(node);
+                if (top + Node.MAX_CHILDREN + 1 > nodes.length) {
+                    nodes = Arrays.copyOf(nodes, nodes.length * 2);
+                    phases = Arrays.copyOf(phases, phases.length * 2);
+                }
+                nodes[top] = node;
+                phases[top] = EXIT;
+                top++;
+                for (int i = Node.MAX_CHILDREN - 1; i >= 0; i--) {
+                    int child = tree.getChild(node, i);
+                    if (child != SyntaxTree.NONE) {
+                        nodes[top] = child;
+                        phases[top] = ENTER;
+                        top++;
+                    }
+                }
+            } else {
+                visitor.postVisit(node);
+                if (top == 0 && !siblings) {
+                    // the root is the only node that exits from the bottom of the stack
+                    continue;
+                }
+                int next = tree.getNext(node);
+                if (next != SyntaxTree.NONE) {
+                    nodes[top] = next;
+                    phases[top] = ENTER;
+                    top++;
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.closure;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.analyize.TreeWalker;
+import net.saga.lang.tiny.parser.ExpressionKind;
+import net.saga.lang.tiny.parser.FlatTree;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.parser.NodeTree;
+import net.saga.lang.tiny.parser.SyntaxTree;
+import net.saga.lang.tiny.scanner.Scanner;
+
+/**
+ * Turns an analyzed parse tree into a tree of {@link Stmt} and
+ * {@link IntExpr} objects, with every variable resolved to a register and
+ * every operator to its own class. Running it defines no classes.
+ *
+ * Common shapes get their own nodes: x := x + c becomes an increment,
+ * additions of constants are merged, and comparisons in conditions are
+ * tested without producing 0 or 1. Expressions are built without
+ * recursion, but evaluating one recurses as deep as the expression is.
+ *
+ * @author summers
+ */
+public final class ClosureCompiler {
+
+    private final SyntaxTree tree;
+    private final SymbolTable symbols;
+
+    private ClosureCompiler(SyntaxTree tree, SymbolTable symbols) {
+        this.tree = tree;
+        this.symbols = symbols;
+    }
+
+    /**
+     * Scans, parses, analyzes and compiles a program.
+     */
+    public static ClosureProgram load(CharSequence source) {
+        FlatTree parseTree = new Parser().parseFlat(new Scanner().scan(CharBuffer.wrap(source)));
+        SymbolTable symbols = Analyizer.analyze(parseTree);
+        return compile(parseTree, symbols);
+    }
+
+    public static ClosureProgram compile(Node parseTree, SymbolTable symbols) {
+        return compile(NodeTree.of(parseTree), symbols);
+    }
+
+    public static ClosureProgram compile(SyntaxTree tree, SymbolTable symbols) {
+        return new ClosureProgram(new ClosureCompiler(tree, symbols).statements(tree.root()), symbols.size());
+    }
+
+    private Stmt statements(int first) {
+        List<Stmt> statements = new ArrayList<>();
+        for (int statement = first; statement != SyntaxTree.NONE; statement = tree.getNext(statement)) {
+            Stmt compiled = statement(statement);
+            if (compiled instanceof Stmt.Sequence) {
+                statements.addAll(Arrays.asList(((Stmt.Sequence) compiled).statements));
+            } else if (compiled != Stmt.Nothing.INSTANCE) {
+                statements.add(compiled);
+            }
+        }
+        switch (statements.size()) {
+            case 0:
+                return Stmt.Nothing.INSTANCE;
+            case 1:
+                return statements.get(0);
+            default:
+                return new Stmt.Sequence(statements.toArray(new Stmt[statements.size()]));
+        }
+    }
+
+    private Stmt statement(int statement) {
+        switch (tree.getStatementKind(statement)) {
+            case IF: {
+                int condition = tree.getChild(statement, 0);
+                Stmt then = statements(tree.getChild(statement, 1));
+                Stmt otherwise = statements(tree.getChild(statement, 2));
+                if (tree.getExpressionKind(condition) == ExpressionKind.ConstantExpression) {
+                    return tree.getValue(condition) != 0 ? then : otherwise;
+                }
+                return new Stmt.If(condition(condition), then, otherwise);
+            }
+            case REPEAT:
+                return new Stmt.Repeat(statements(tree.getChild(statement, 0)), condition(tree.getChild(statement, 1)));
+            case ASSIGN: {
+                int register = register(statement);
+                IntExpr value = expression(tree.getChild(statement, 0));
+                if (value instanceof IntExpr.Constant) {
+                    return new Stmt.AssignConstant(register, ((IntExpr.Constant) value).value);
+                }
+                if (value instanceof IntExpr.VariablePlus && ((IntExpr.VariablePlus) value).register == register) {
+                    return new Stmt.Increment(register, ((IntExpr.VariablePlus) value).value);
+                }
+                return new Stmt.Assign(register, value);
+            }
+            case READ:
+                return new Stmt.Read(register(statement));
+            case WRITE:
+                return new Stmt.Write(expression(tree.getChild(statement, 0)));
+            default:
+                throw new AssertionError(tree.getStatementKind(statement).name());
+        }
+    }
+
+    private Condition condition(int condition) {
+        if (tree.getExpressionKind(condition) == ExpressionKind.OperatorExpression) {
+            switch (tree.getOperationAttribute(condition)) {
+                case EQ:
+                    return equal(expression(tree.getChild(condition, 0)), expression(tree.getChild(condition, 1)));
+                case LT:
+                    return new Condition.Less(expression(tree.getChild(condition, 0)), expression(tree.getChild(condition, 1)));
+                default:
+                    break;
+            }
+        }
+        return new Condition.NonZero(expression(condition));
+    }
+
+    private static Condition equal(IntExpr left, IntExpr right) {
+        if (left instanceof IntExpr.Variable && right instanceof IntExpr.Constant) {
+            return new Condition.VariableEquals(((IntExpr.Variable) left).register, ((IntExpr.Constant) right).value);
+        }
+        if (right instanceof IntExpr.Variable && left instanceof IntExpr.Constant) {
+            return new Condition.VariableEquals(((IntExpr.Variable) right).register, ((IntExpr.Constant) left).value);
+        }
+        return new Condition.Equal(left, right);
+    }
+
+    private IntExpr expression(int expression) {
+        Operands operands = new Operands();
+        TreeWalker.walkSubtree(tree, expression, operands);
+        return operands.built[0];
+    }
+
+    /**
+     * Builds an expression in post order, keeping the operands not yet used
+     * on a stack.
+     */
+    private final class Operands implements TreeWalker.Visitor {
+
+        private IntExpr[] built = new IntExpr[8];
+        private int top = 0;
+
+        @Override
+        public void postVisit(int node) {
+            IntExpr expression;
+            switch (tree.getExpressionKind(node)) {
+                case ConstantExpression:
+                    expression = new IntExpr.Constant(tree.getValue(node));
+                    break;
+                case IdentifierExpression:
+                    expression = new IntExpr.Variable(register(node));
+                    break;
+                case OperatorExpression: {
+                    IntExpr right = built[--top];
+                    IntExpr left = built[--top];
+                    expression = operator(node, left, right);
+                    break;
+                }
+                default:
+                    throw new AssertionError(tree.getExpressionKind(node).name());
+            }
+            if (top == built.length) {
+                built = Arrays.copyOf(built, top * 2);
+            }
+            built[top++] = expression;
+        }
+    }
+
+    private IntExpr operator(int node, IntExpr left, IntExpr right) {
+        switch (tree.getOperationAttribute(node)) {
+            case ADDITION:
+                if (right instanceof IntExpr.Constant) {
+                    return plus(left, ((IntExpr.Constant) right).value);
+                }
+                if (left instanceof IntExpr.Constant) {
+                    return plus(right, ((IntExpr.Constant) left).value);
+                }
+                return new IntExpr.Add(left, right);
+            case SUBTRACTION:
+                if (right instanceof IntExpr.Constant) {
+                    return plus(left, -((IntExpr.Constant) right).value);
+                }
+                return new IntExpr.Subtract(left, right);
+            case MULTIPLICATION:
+                return new IntExpr.Multiply(left, right);
+            case INT_DIVISION:
+                return new IntExpr.Divide(left, right);
+            case EQ:
+                return new IntExpr.Test(equal(left, right));
+            case LT:
+                return new IntExpr.Test(new Condition.Less(left, right));
+            default:
+                throw new RuntimeException("Wrong operation:" + tree.getOperationAttribute(node));
+        }
+    }
+
+    private static IntExpr plus(IntExpr operand, int value) {
+        if (operand instanceof IntExpr.Constant) {
+            return new IntExpr.Constant(((IntExpr.Constant) operand).value + value);
+        }
+        if (operand instanceof IntExpr.Variable) {
+            return new IntExpr.VariablePlus(((IntExpr.Variable) operand).register, value);
+        }
+        if (operand instanceof IntExpr.VariablePlus) {
+            IntExpr.VariablePlus variablePlus = (IntExpr.VariablePlus) operand;
+            return new IntExpr.VariablePlus(variablePlus.register, variablePlus.value + value);
+        }
+        if (operand instanceof IntExpr.Plus) {
+            IntExpr.Plus plus = (IntExpr.Plus) operand;
+            return new IntExpr.Plus(plus.operand, plus.value + value);
+        }
+        return new IntExpr.Plus(operand, value);
+    }
+
+    private int register(int node) {
+        int symbol = tree.getSymbol(node);
+        return symbol != Node.NO_SYMBOL ? symbol : symbols.getSymbol(tree.getName(node));
+    }
+
+}
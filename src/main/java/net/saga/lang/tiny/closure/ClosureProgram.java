@@ -0,0 +1,71 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.closure;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * A Tiny program compiled by the {@link ClosureCompiler}.
+ *
+ * @author summers
+ */
+public final class ClosureProgram {
+
+    private static final IntSupplier CONSOLE = () -> Integer.parseInt(System.console().readLine());
+    private static final IntConsumer STANDARD_OUT = value -> System.out.println(value);
+
+    private final Stmt body;
+    private final int frameSize;
+
+    ClosureProgram(Stmt body, int frameSize) {
+        this.body = body;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * @return the number of registers a run needs, one per variable
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Runs the program like the main method generated by
+     * {@link net.saga.lang.tiny.compiler.TinyCompiler}: read parses a line
+     * from System.console() and write prints to System.out.
+     */
+    public void run() {
+        execute(new int[frameSize], CONSOLE, STANDARD_OUT);
+    }
+
+    /**
+     * @param frame the variables, at least {@link #getFrameSize()} long
+     */
+    public void execute(int[] frame, IntSupplier input, IntConsumer output) {
+        body.exec(frame, input, output);
+    }
+
+    /**
+     * @return the tree of statements, for example "r0 := 1; write (r0 + 1)"
+     */
+    @Override
+    public String toString() {
+        return body.toString();
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.closure;
+
+/**
+ * A condition of an if or repeat, tested without producing 0 or 1 first.
+ *
+ * @author summers
+ */
+public abstract class Condition {
+
+    public abstract boolean test(int[] frame);
+
+    static final class Equal extends Condition {
+
+        final IntExpr left;
+        final IntExpr right;
+
+        Equal(IntExpr left, IntExpr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(int[] frame) {
+            return left.eval(frame) == right.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return left + " = " + right;
+        }
+    }
+
+    /**
+     * A variable compared with a constant, the usual exit test of a loop.
+     */
+    static final class VariableEquals extends Condition {
+
+        final int register;
+        final int value;
+
+        VariableEquals(int register, int value) {
+            this.register = register;
+            this.value = value;
+        }
+
+        @Override
+        public boolean test(int[] frame) {
+            return frame[register] == value;
+        }
+
+        @Override
+        public String toString() {
+            return "r" + register + " = " + value;
+        }
+    }
+
+    static final class Less extends Condition {
+
+        final IntExpr left;
+        final IntExpr right;
+
+        Less(IntExpr left, IntExpr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(int[] frame) {
+            return left.eval(frame) < right.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return left + " < " + right;
+        }
+    }
+
+    static final class NonZero extends Condition {
+
+        final IntExpr value;
+
+        NonZero(IntExpr value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean test(int[] frame) {
+            return value.eval(frame) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return value + " != 0";
+        }
+    }
+
+}
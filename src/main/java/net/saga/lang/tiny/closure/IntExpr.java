@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.closure;
+
+/**
+ * An integer expression with its variables resolved to registers of a frame.
+ * Every operator and operand shape has its own final class, so each call
+ * site sees few receiver types and the JIT can inline the whole tree.
+ *
+ * @author summers
+ */
+public abstract class IntExpr {
+
+    public abstract int eval(int[] frame);
+
+    static final class Constant extends IntExpr {
+
+        final int value;
+
+        Constant(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return value;
+        }
+
+        @Override
+        public String toString() {
+            return Integer.toString(value);
+        }
+    }
+
+    static final class Variable extends IntExpr {
+
+        final int register;
+
+        Variable(int register) {
+            this.register = register;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return frame[register];
+        }
+
+        @Override
+        public String toString() {
+            return "r" + register;
+        }
+    }
+
+    /**
+     * A variable plus a constant, which also covers subtracting one.
+     */
+    static final class VariablePlus extends IntExpr {
+
+        final int register;
+        final int value;
+
+        VariablePlus(int register, int value) {
+            this.register = register;
+            this.value = value;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return frame[register] + value;
+        }
+
+        @Override
+        public String toString() {
+            return "(r" + register + " + " + value + ")";
+        }
+    }
+
+    /**
+     * Any expression plus a constant. Chains like x + 1 + 2 collapse into one
+     * node, since int addition wraps the same in any order.
+     */
+    static final class Plus extends IntExpr {
+
+        final IntExpr operand;
+        final int value;
+
+        Plus(IntExpr operand, int value) {
+            this.operand = operand;
+            this.value = value;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return operand.eval(frame) + value;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + operand + " + " + value + ")";
+        }
+    }
+
+    static final class Add extends IntExpr {
+
+        final IntExpr left;
+        final IntExpr right;
+
+        Add(IntExpr left, IntExpr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return left.eval(frame) + right.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " + " + right + ")";
+        }
+    }
+
+    static final class Subtract extends IntExpr {
+
+        final IntExpr left;
+        final IntExpr right;
+
+        Subtract(IntExpr left, IntExpr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return left.eval(frame) - right.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " - " + right + ")";
+        }
+    }
+
+    static final class Multiply extends IntExpr {
+
+        final IntExpr left;
+        final IntExpr right;
+
+        Multiply(IntExpr left, IntExpr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return left.eval(frame) * right.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " * " + right + ")";
+        }
+    }
+
+    static final class Divide extends IntExpr {
+
+        final IntExpr left;
+        final IntExpr right;
+
+        Divide(IntExpr left, IntExpr right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return left.eval(frame) / right.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return "(" + left + " / " + right + ")";
+        }
+    }
+
+    /**
+     * A condition used as a value, 1 when it holds and 0 otherwise.
+     */
+    static final class Test extends IntExpr {
+
+        final Condition condition;
+
+        Test(Condition condition) {
+            this.condition = condition;
+        }
+
+        @Override
+        public int eval(int[] frame) {
+            return condition.test(frame) ? 1 : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + condition + ")";
+        }
+    }
+
+}
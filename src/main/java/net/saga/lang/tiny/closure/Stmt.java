@@ -0,0 +1,224 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.closure;
+
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+
+/**
+ * A statement with its variables resolved to registers of a frame.
+ *
+ * @author summers
+ */
+public abstract class Stmt {
+
+    public abstract void exec(int[] frame, IntSupplier input, IntConsumer output);
+
+    static final class Nothing extends Stmt {
+
+        static final Nothing INSTANCE = new Nothing();
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+        }
+
+        @Override
+        public String toString() {
+            return "";
+        }
+    }
+
+    static final class Sequence extends Stmt {
+
+        final Stmt[] statements;
+
+        Sequence(Stmt[] statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            for (Stmt statement : statements) {
+                statement.exec(frame, input, output);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sequence = new StringBuilder();
+            for (Stmt statement : statements) {
+                sequence.append(sequence.length() == 0 ? "" : "; ").append(statement);
+            }
+            return sequence.toString();
+        }
+    }
+
+    static final class Assign extends Stmt {
+
+        final int register;
+        final IntExpr value;
+
+        Assign(int register, IntExpr value) {
+            this.register = register;
+            this.value = value;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            frame[register] = value.eval(frame);
+        }
+
+        @Override
+        public String toString() {
+            return "r" + register + " := " + value;
+        }
+    }
+
+    static final class AssignConstant extends Stmt {
+
+        final int register;
+        final int value;
+
+        AssignConstant(int register, int value) {
+            this.register = register;
+            this.value = value;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            frame[register] = value;
+        }
+
+        @Override
+        public String toString() {
+            return "r" + register + " := " + value;
+        }
+    }
+
+    /**
+     * x := x + c, and x := x - c.
+     */
+    static final class Increment extends Stmt {
+
+        final int register;
+        final int value;
+
+        Increment(int register, int value) {
+            this.register = register;
+            this.value = value;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            frame[register] += value;
+        }
+
+        @Override
+        public String toString() {
+            return "r" + register + " += " + value;
+        }
+    }
+
+    static final class Read extends Stmt {
+
+        final int register;
+
+        Read(int register) {
+            this.register = register;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            frame[register] = input.getAsInt();
+        }
+
+        @Override
+        public String toString() {
+            return "read r" + register;
+        }
+    }
+
+    static final class Write extends Stmt {
+
+        final IntExpr value;
+
+        Write(IntExpr value) {
+            this.value = value;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            output.accept(value.eval(frame));
+        }
+
+        @Override
+        public String toString() {
+            return "write " + value;
+        }
+    }
+
+    static final class If extends Stmt {
+
+        final Condition condition;
+        final Stmt then;
+        final Stmt otherwise;
+
+        If(Condition condition, Stmt then, Stmt otherwise) {
+            this.condition = condition;
+            this.then = then;
+            this.otherwise = otherwise;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            if (condition.test(frame)) {
+                then.exec(frame, input, output);
+            } else {
+                otherwise.exec(frame, input, output);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "if " + condition + " then [" + then + "] else [" + otherwise + "]";
+        }
+    }
+
+    static final class Repeat extends Stmt {
+
+        final Stmt body;
+        final Condition until;
+
+        Repeat(Stmt body, Condition until) {
+            this.body = body;
+            this.until = until;
+        }
+
+        @Override
+        public void exec(int[] frame, IntSupplier input, IntConsumer output) {
+            do {
+                body.exec(frame, input, output);
+            } while (!until.test(frame));
+        }
+
+        @Override
+        public String toString() {
+            return "repeat [" + body + "] until " + until;
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of compiled programs in a directory, shared between runs and
+ * between processes.
+ *
+ * Programs are keyed by the SHA-256 of their source and
+ * {@link CompilerOptions#key()}, and the class is named after the key so
+ * the same program always gets the same class name. Each class file is
+ * written to a temporary file and moved into place, so readers never see a
+ * partial class.
+ *
+ * The index is a memory mapped file holding a set associative table of
+ * {@value #WAYS} entries per set. When a set is full its least recently used
+ * entry and class file are deleted. Index updates hold a file lock, and
+ * caches in one JVM sharing an index also hold a monitor for that index,
+ * since file locks are held per process.
+ *
+ * @author summers
+ */
+public class ClassCache implements Closeable {
+
+    public static final int WAYS = 8;
+
+    /**
+     * Part of every key. Change it when the generated code changes so stale
+     * classes are no longer found.
+     */
+    public static final int VERSION = 1;
+
+    private static final String INDEX = "index";
+    private static final int MAGIC = 0x54494e59;
+    private static final int HEADER_SIZE = 24;
+    private static final int CLOCK = 16;
+    private static final int DIGEST_SIZE = 32;
+    private static final int SLOT_SIZE = DIGEST_SIZE + 16;
+    private static final ConcurrentMap<Path, Object> LOCKS = new ConcurrentHashMap<>();
+
+    private final Path directory;
+    private final FileChannel channel;
+    private final MappedByteBuffer index;
+    private final Object lock;
+    private final int sets;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries the capacity of a new index, rounded up to a
+     * multiple of {@link #WAYS}. An existing index keeps its capacity.
+     * @throws IllegalArgumentException if the index would be larger than a
+     * mapped buffer can address
+     */
+    public ClassCache(Path directory, int maxEntries) throws IOException {
+        long newSets = Math.max(1, ((long) maxEntries + WAYS - 1) / WAYS);
+        if (!isMappable(newSets)) {
+            throw new IllegalArgumentException("An index of " + maxEntries + " entries is larger than " + Integer.MAX_VALUE + " bytes");
+        }
+        this.directory = directory;
+        Files.createDirectories(directory);
+        channel = FileChannel.open(directory.resolve(INDEX), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            lock = LOCKS.computeIfAbsent(directory.resolve(INDEX).toRealPath(), path -> new Object());
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+        synchronized (lock) {
+            try (FileLock fileLock = channel.lock()) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                channel.read(header, 0);
+                header.flip();
+                if (header.remaining() == HEADER_SIZE && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                        && header.getInt(8) > 0 && isMappable(header.getInt(8))) {
+                    sets = header.getInt(8);
+                    index = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(sets));
+                } else {
+                    sets = (int) newSets;
+                    channel.truncate(0);
+                    index = channel.map(FileChannel.MapMode.READ_WRITE, 0, indexSize(sets));
+                    index.putInt(4, VERSION);
+                    index.putInt(8, sets);
+                    index.putInt(0, MAGIC);
+                }
+            } catch (IOException | RuntimeException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+    }
+
+    /**
+     * Loads a program from the cache, or compiles and caches it.
+     *
+     * @return the program class, defined in loader
+     */
+    public Class<?> load(CharSequence source, CompilerOptions options, DynamicClassLoader loader) {
+        byte[] digest = digest(source, options);
+        String name = hex(digest);
+        String className = className(digest);
+
+        byte[] classBytes = read(digest, name);
+        if (classBytes != null) {
+            hits.incrementAndGet();
+            return loader.define(className, classBytes);
+        }
+        misses.incrementAndGet();
+
+        CompilerContext context = options.compile(source, className);
+        if (!context.jiteClass.getChildClasses().isEmpty()) {
+            return loader.define(context.jiteClass);
+        }
+        classBytes = context.jiteClass.toBytes();
+        write(digest, name, classBytes);
+        return loader.define(className, classBytes);
+    }
+
+    /**
+     * @return the internal name the cache gives a program
+     */
+    public static String className(CharSequence source, CompilerOptions options) {
+        return className(digest(source, options));
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            index.force();
+            channel.close();
+        }
+    }
+
+    private byte[] read(byte[] digest, String name) {
+        int length;
+        synchronized (lock) {
+            try (FileLock fileLock = channel.lock()) {
+                int slot = find(digest);
+                if (slot < 0) {
+                    return null;
+                }
+                index.putLong(slot + DIGEST_SIZE, tick());
+                length = index.getInt(slot + DIGEST_SIZE + 8);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        try {
+            byte[] classBytes = Files.readAllBytes(classFile(name));
+            return classBytes.length == length ? classBytes : null;
+        } catch (NoSuchFileException ex) {
+            return null;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void write(byte[] digest, String name, byte[] classBytes) {
+        try {
+            Path temporary = Files.createTempFile(directory, name, ".tmp");
+            try {
+                Files.write(temporary, classBytes);
+                Files.move(temporary, classFile(name), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+
+            synchronized (lock) {
+                try (FileLock fileLock = channel.lock()) {
+                    int slot = find(digest);
+                    if (slot < 0) {
+                        slot = victim(digest);
+                        for (int i = 0; i < DIGEST_SIZE; i++) {
+                            index.put(slot + i, digest[i]);
+                        }
+                    }
+                    index.putInt(slot + DIGEST_SIZE + 8, classBytes.length);
+                    index.putLong(slot + DIGEST_SIZE, tick());
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @return the offset of the slot holding digest, or -1
+     */
+    private int find(byte[] digest) {
+        int first = firstSlot(digest);
+        for (int way = 0; way < WAYS; way++) {
+            int slot = first + way * SLOT_SIZE;
+            if (index.getLong(slot + DIGEST_SIZE) != 0 && matches(slot, digest)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return an empty slot in the set of digest, or its least recently
+     * used slot after deleting that entry's class file
+     */
+    private int victim(byte[] digest) throws IOException {
+        int first = firstSlot(digest);
+        int oldest = first;
+        for (int way = 0; way < WAYS; way++) {
+            int slot = first + way * SLOT_SIZE;
+            long lastUsed = index.getLong(slot + DIGEST_SIZE);
+            if (lastUsed == 0) {
+                return slot;
+            }
+            if (lastUsed < index.getLong(oldest + DIGEST_SIZE)) {
+                oldest = slot;
+            }
+        }
+        byte[] evicted = new byte[DIGEST_SIZE];
+        for (int i = 0; i < DIGEST_SIZE; i++) {
+            evicted[i] = index.get(oldest + i);
+        }
+        Files.deleteIfExists(classFile(hex(evicted)));
+        index.putLong(oldest + DIGEST_SIZE, 0);
+        evictions.incrementAndGet();
+        return oldest;
+    }
+
+    private boolean matches(int slot, byte[] digest) {
+        for (int i = 0; i < DIGEST_SIZE; i++) {
+            if (index.get(slot + i) != digest[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int firstSlot(byte[] digest) {
+        int hash = ByteBuffer.wrap(digest).getInt() & Integer.MAX_VALUE;
+        //below indexSize(sets), which isMappable bounds to an int
+        return (int) (HEADER_SIZE + (long) (hash % sets) * WAYS * SLOT_SIZE);
+    }
+
+    private static long indexSize(long sets) {
+        return HEADER_SIZE + sets * WAYS * SLOT_SIZE;
+    }
+
+    private static boolean isMappable(long sets) {
+        return indexSize(sets) <= Integer.MAX_VALUE;
+    }
+
+    private long tick() {
+        long clock = index.getLong(CLOCK) + 1;
+        index.putLong(CLOCK, clock);
+        return clock;
+    }
+
+    private Path classFile(String name) {
+        return directory.resolve(name + ".class");
+    }
+
+    private static String className(byte[] digest) {
+        return "tiny/Program_" + hex(digest).substring(0, 32);
+    }
+
+    private static byte[] digest(CharSequence source, CompilerOptions options) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            sha.update((VERSION + "\n" + options.key() + "\n").getBytes(StandardCharsets.UTF_8));
+            sha.update(source.toString().getBytes(StandardCharsets.UTF_8));
+            return sha.digest();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Where {@link DynamicClassLoader} sends the bytes of every class it defines,
+ * for example to look at them with javap. Classes are always defined in
+ * memory whatever the output does with them.
+ *
+ * An output may be shared by loaders on several threads. Closing it makes
+ * sure everything written so far has reached its destination.
+ *
+ * @author summers
+ */
+public interface ClassOutput extends Closeable {
+
+    /**
+     * Keeps classes in memory only. This is the default.
+     */
+    ClassOutput NONE = new ClassOutput() {
+        @Override
+        public void write(String className, byte[] classBytes) {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    /**
+     * @param className the internal name of the class, for example
+     * net/saga/Example
+     * @param classBytes the class file. Must not be modified afterwards.
+     */
+    void write(String className, byte[] classBytes) throws IOException;
+
+}
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compiles Tiny programs from any number of threads.
+ *
+ * Scanners, parsers and compiler contexts keep state while they work, so
+ * every compilation gets its own. Class names are numbered per service, so
+ * classes from one service never clash in a loader.
+ *
+ * @author summers
+ */
+public class CompilationService {
+
+    public static final String DEFAULT_CLASS_PREFIX = "tiny/Compiled";
+
+    /**
+     * Batches are split until this many sources are left for one task.
+     */
+    static final int BATCH_THRESHOLD = 4;
+
+    private final CompilerOptions options;
+    private final ForkJoinPool pool;
+    private final String classPrefix;
+    private final AtomicLong classCount = new AtomicLong();
+
+    public CompilationService(CompilerOptions options) {
+        this(options, ForkJoinPool.commonPool(), DEFAULT_CLASS_PREFIX);
+    }
+
+    /**
+     * @param pool runs the tasks of {@link #compileAll(List)}
+     * @param classPrefix the internal name every class name starts with
+     */
+    public CompilationService(CompilerOptions options, ForkJoinPool pool, String classPrefix) {
+        this.options = options;
+        this.pool = pool;
+        this.classPrefix = classPrefix;
+    }
+
+    /**
+     * Compiles a program on the calling thread.
+     */
+    public Compilation compile(CharSequence source) {
+        String className = classPrefix + classCount.incrementAndGet();
+        try {
+            CompilerContext context = options.compile(source, className);
+            if (!context.jiteClass.getChildClasses().isEmpty()) {
+                throw new IllegalStateException(className + " has child classes");
+            }
+            return new Compilation(className, context.jiteClass.toBytes(), null);
+        } catch (RuntimeException ex) {
+            return new Compilation(className, null, ex);
+        }
+    }
+
+    /**
+     * Compiles programs in parallel on the pool. A program that fails to
+     * compile does not stop the others.
+     *
+     * @return a compilation for every source, in the order of sources
+     */
+    public List<Compilation> compileAll(List<? extends CharSequence> sources) {
+        Compilation[] results = new Compilation[sources.size()];
+        pool.invoke(new Batch(sources, results, 0, results.length));
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * Defines every successful compilation in loader.
+     *
+     * @return the classes in the order of compilations, with null for
+     * failures
+     */
+    public static List<Class<?>> defineAll(List<Compilation> compilations, DynamicClassLoader loader) {
+        List<Class<?>> classes = new ArrayList<>(compilations.size());
+        for (Compilation compilation : compilations) {
+            classes.add(compilation.isSuccess() ? compilation.define(loader) : null);
+        }
+        return classes;
+    }
+
+    private final class Batch extends RecursiveAction {
+
+        private final List<? extends CharSequence> sources;
+        private final Compilation[] results;
+        private final int from;
+        private final int to;
+
+        private Batch(List<? extends CharSequence> sources, Compilation[] results, int from, int to) {
+            this.sources = sources;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= BATCH_THRESHOLD) {
+                for (int i = from; i < to; i++) {
+                    results[i] = compile(sources.get(i));
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Batch(sources, results, from, middle), new Batch(sources, results, middle, to));
+        }
+    }
+
+    /**
+     * The class of one program, or why it could not be compiled.
+     */
+    public static final class Compilation {
+
+        private final String className;
+        private final byte[] classBytes;
+        private final RuntimeException error;
+
+        private Compilation(String className, byte[] classBytes, RuntimeException error) {
+            this.className = className;
+            this.classBytes = classBytes;
+            this.error = error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        /**
+         * @return the internal name of the class
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the class file, or null if compilation failed. Must not be
+         * modified.
+         */
+        public byte[] getClassBytes() {
+            return classBytes;
+        }
+
+        /**
+         * @return why compilation failed, or null
+         */
+        public RuntimeException getError() {
+            return error;
+        }
+
+        public Class<?> define(DynamicClassLoader loader) {
+            if (error != null) {
+                throw error;
+            }
+            return loader.define(className, classBytes);
+        }
+    }
+
+}
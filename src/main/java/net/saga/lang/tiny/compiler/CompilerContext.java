@@ -15,6 +15,9 @@
  */
 package net.saga.lang.tiny.compiler;
 
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -34,13 +37,27 @@ import static me.qmx.jitescript.util.CodegenUtils.sig;
  */
 public class CompilerContext {
 
+    /**
+     * Estimated bytecode size above which a program is split into helper
+     * methods. It stays under HotSpot's HugeMethodLimit of 8000 bytes.
+     */
+    public static final int DEFAULT_METHOD_SIZE_LIMIT = 6000;
+
     public final JiteClass jiteClass;
     private int childClassCount = 0;
     private final Map<String, Object> variables = new HashMap<>();
     private final Set<String> methods = new HashSet<>();
     private CompilerContext parentContext = null;
     private CodeBlock currentBlock = newCodeBlock();
-    private Set<Integer> lines = new HashSet<>();
+    private BitSet lines = new BitSet();
+    private boolean debug = true;
+    private Peephole peephole = Peephole.standard();
+    private int methodSizeLimit = DEFAULT_METHOD_SIZE_LIMIT;
+    private boolean outlining = false;
+    private int localOffset = 0;
+    private BitSet methodVariables = new BitSet();
+    private int helperCount = 0;
+    private final Deque<SavedBlock> savedBlocks = new ArrayDeque<>();
     LabelNode endLabel = new LabelNode();
     public CompilerContext() {
         this("anonymous");
@@ -135,6 +152,7 @@ public class CompilerContext {
         if (methods.contains(methodName)) {
             throw new RuntimeException(methodName + " already defined");
         }
+        optimize(currentBlock);
         jiteClass.defineMethod(methodName, Opcodes.ACC_PUBLIC, CodegenUtils.sig(void.class, String[].class), currentBlock);
         methods.add(methodName);
         currentBlock = newCodeBlock();
@@ -145,12 +163,107 @@ public class CompilerContext {
         if (methods.contains("main")) {
             throw new RuntimeException("main" + " already defined");
         }
+        optimize(currentBlock);
         jiteClass.defineMethod("main", Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, CodegenUtils.sig(void.class, String[].class), currentBlock);
         methods.add("main");
         currentBlock = newCodeBlock();
         return this;
     }
     
+    /**
+     * Sets the peephole rules run over a block before it becomes a method.
+     *
+     * @param peephole the rules, or null to keep blocks as generated
+     * @return this
+     */
+    public CompilerContext setPeephole(Peephole peephole) {
+        this.peephole = peephole;
+        return this;
+    }
+
+    private void optimize(CodeBlock block) {
+        if (peephole != null) {
+            peephole.optimize(block.getInstructionList());
+        }
+    }
+
+    public int getMethodSizeLimit() {
+        return methodSizeLimit;
+    }
+
+    /**
+     * @param methodSizeLimit the estimated size in bytes a method may reach
+     * before it is split, or 0 to always compile into a single main
+     * @return this
+     */
+    public CompilerContext setMethodSizeLimit(int methodSizeLimit) {
+        this.methodSizeLimit = methodSizeLimit;
+        return this;
+    }
+
+    boolean isOutlining() {
+        return outlining;
+    }
+
+    void startOutlining() {
+        outlining = true;
+    }
+
+    /**
+     * @param address the address of a variable
+     * @return the local variable slot holding it in the current method
+     */
+    int localSlot(int address) {
+        return address + localOffset;
+    }
+
+    /**
+     * @return the addresses of the variables the current helper keeps in
+     * locals. Empty in main.
+     */
+    BitSet methodVariables() {
+        return methodVariables;
+    }
+
+    /**
+     * Starts the block of a helper method taking the variable frame as its
+     * only argument. The block that was current is resumed by endHelper.
+     *
+     * @param variables the addresses of the variables the helper keeps in
+     * locals
+     */
+    void beginHelper(BitSet variables) {
+        savedBlocks.push(new SavedBlock(currentBlock, lines, endLabel, localOffset, methodVariables));
+        currentBlock = newCodeBlock();
+        lines = new BitSet();
+        endLabel = new LabelNode();
+        localOffset = 1;
+        methodVariables = variables;
+    }
+
+    /**
+     * Defines the current block as a private static helper and returns to
+     * the block that was current when it began.
+     *
+     * @return the name of the helper
+     */
+    String endHelper() {
+        currentBlock.label(endLabel);
+        currentBlock.voidreturn();
+        optimize(currentBlock);
+        String name = "part" + (++helperCount);
+        jiteClass.defineMethod(name, Opcodes.ACC_PRIVATE | Opcodes.ACC_STATIC, CodegenUtils.sig(void.class, int[].class), currentBlock);
+        methods.add(name);
+
+        SavedBlock saved = savedBlocks.pop();
+        currentBlock = saved.block;
+        lines = saved.lines;
+        endLabel = saved.endLabel;
+        localOffset = saved.localOffset;
+        methodVariables = saved.methodVariables;
+        return name;
+    }
+
     public CodeBlock currentBlock() {
         return this.currentBlock;
     }
@@ -176,12 +289,49 @@ public class CompilerContext {
         return "L" + getClassName() + ";";
     }
     
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * Release mode leaves out the LineNumberTable and LocalVariableTable,
+     * and skips the labels and line bookkeeping they need.
+     *
+     * @param debug false to compile in release mode
+     * @return this
+     */
+    public CompilerContext setDebug(boolean debug) {
+        this.debug = debug;
+        return this;
+    }
+
+    /**
+     * @return true if code for this line needs a line number entry. Always
+     * false in release mode.
+     */
     public boolean shouldMarkLine(int line) {
-        return !lines.contains(line);
+        return debug && !lines.get(line);
     }
 
     void markLine(int lineNumber) {
-        lines.add(lineNumber);
+        lines.set(lineNumber);
+    }
+
+    private static final class SavedBlock {
+
+        private final CodeBlock block;
+        private final BitSet lines;
+        private final LabelNode endLabel;
+        private final int localOffset;
+        private final BitSet methodVariables;
+
+        private SavedBlock(CodeBlock block, BitSet lines, LabelNode endLabel, int localOffset, BitSet methodVariables) {
+            this.block = block;
+            this.lines = lines;
+            this.endLabel = endLabel;
+            this.localOffset = localOffset;
+            this.methodVariables = methodVariables;
+        }
     }
     
 }
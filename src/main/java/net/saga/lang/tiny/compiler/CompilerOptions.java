@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.nio.CharBuffer;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.optimizer.Optimizer;
+import net.saga.lang.tiny.parser.FlatTree;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+
+/**
+ * The settings a program is compiled with, and the pipeline from source to
+ * a compiled class. Two compilations of the same source with equal options
+ * produce the same class, so {@link #key()} can be part of a cache key.
+ */
+public class CompilerOptions {
+
+    private boolean debug = true;
+    private boolean optimize = false;
+    private boolean peephole = true;
+    private int methodSizeLimit = CompilerContext.DEFAULT_METHOD_SIZE_LIMIT;
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /**
+     * @see CompilerContext#setDebug(boolean)
+     * @return this
+     */
+    public CompilerOptions setDebug(boolean debug) {
+        this.debug = debug;
+        return this;
+    }
+
+    public boolean isOptimize() {
+        return optimize;
+    }
+
+    /**
+     * The optimizer is off unless this is set.
+     *
+     * @param optimize true to run the {@link Optimizer} between analysis and
+     * compiling
+     * @return this
+     */
+    public CompilerOptions setOptimize(boolean optimize) {
+        this.optimize = optimize;
+        return this;
+    }
+
+    public boolean isPeephole() {
+        return peephole;
+    }
+
+    /**
+     * @param peephole false to keep blocks as generated
+     * @return this
+     */
+    public CompilerOptions setPeephole(boolean peephole) {
+        this.peephole = peephole;
+        return this;
+    }
+
+    public int getMethodSizeLimit() {
+        return methodSizeLimit;
+    }
+
+    /**
+     * @see CompilerContext#setMethodSizeLimit(int)
+     * @return this
+     */
+    public CompilerOptions setMethodSizeLimit(int methodSizeLimit) {
+        this.methodSizeLimit = methodSizeLimit;
+        return this;
+    }
+
+    /**
+     * @return every option that changes the generated class, as a string
+     */
+    public String key() {
+        return "debug=" + debug + ",optimize=" + optimize + ",peephole=" + peephole
+                + ",methodSizeLimit=" + methodSizeLimit;
+    }
+
+    public CompilerContext newContext(String className) {
+        return new CompilerContext(className)
+                .setDebug(debug)
+                .setPeephole(peephole ? Peephole.standard() : null)
+                .setMethodSizeLimit(methodSizeLimit);
+    }
+
+    /**
+     * Scans, parses, analyzes and compiles a program.
+     *
+     * @param className the internal name of the class to generate
+     * @return the context holding the compiled class
+     */
+    public CompilerContext compile(CharSequence source, String className) {
+        FlatTree parseTree = new Parser().parseFlat(new Scanner().scan(CharBuffer.wrap(source)));
+        SymbolTable symbols = Analyizer.analyze(parseTree);
+        if (optimize) {
+            return TinyCompiler.compileProgram(Optimizer.optimize(parseTree.toNode()), newContext(className), symbols);
+        }
+        return TinyCompiler.compileProgram(parseTree, newContext(className), symbols);
+    }
+
+}
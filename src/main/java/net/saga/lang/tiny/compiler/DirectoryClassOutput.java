@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Writes classes to a directory from a background thread, as
+ * &lt;directory&gt;/&lt;internal name&gt;.class.
+ *
+ * Classes wait in a bounded queue, so compiling only blocks once the writer
+ * falls that far behind. Each file is written under a temporary name and
+ * moved into place, so two compiles producing the same class name never leave
+ * a mix of both. The first failure is rethrown by the next write or by close.
+ *
+ * Writes queue their class while holding the read lock and close takes the
+ * write lock before queueing the end, so a write either fails or lands before
+ * the end and is written.
+ *
+ * @author summers
+ */
+public class DirectoryClassOutput implements ClassOutput {
+
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    private static final ClassFile END = new ClassFile(null, null);
+
+    private final Path directory;
+    private final BlockingQueue<ClassFile> queue;
+    private final Thread writer;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private volatile IOException failure;
+    private boolean closed = false;
+
+    public DirectoryClassOutput(Path directory) {
+        this(directory, DEFAULT_QUEUE_SIZE);
+    }
+
+    public DirectoryClassOutput(Path directory, int queueSize) {
+        this.directory = directory;
+        this.queue = new ArrayBlockingQueue<>(queueSize);
+        this.writer = new Thread(this::drain, "class-output-" + directory.getFileName());
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public void write(String className, byte[] classBytes) throws IOException {
+        checkFailure();
+        lock.readLock().lock();
+        try {
+            if (closed) {
+                throw new IOException("Output to " + directory + " is closed");
+            }
+            queue.put(new ClassFile(className, classBytes));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing " + className);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits until every queued class is on disk.
+     */
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            queue.put(END);
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while closing output to " + directory);
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("Could not write to " + directory, failure);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            ClassFile classFile;
+            try {
+                classFile = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (classFile == END) {
+                return;
+            }
+            if (failure == null) {
+                try {
+                    store(classFile);
+                } catch (IOException ex) {
+                    failure = ex;
+                }
+            }
+        }
+    }
+
+    private void store(ClassFile classFile) throws IOException {
+        Path target = directory.resolve(classFile.name + ".class");
+        Files.createDirectories(target.getParent());
+        Path temporary = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(temporary, classFile.bytes);
+            Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static final class ClassFile {
+
+        private final String name;
+        private final byte[] bytes;
+
+        private ClassFile(String name, byte[] bytes) {
+            this.name = name;
+            this.bytes = bytes;
+        }
+    }
+
+}
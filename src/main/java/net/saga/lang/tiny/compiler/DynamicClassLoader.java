@@ -13,29 +13,79 @@
  * See the License for the specific language governing permissions and
  * limitations under the License.
  */
+
 package net.saga.lang.tiny.compiler;
 
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
 import me.qmx.jitescript.JiteClass;
 import static me.qmx.jitescript.util.CodegenUtils.c;
 
+/**
+ * Defines compiled classes in memory. Every class is also handed to a
+ * {@link ClassOutput}, which by default keeps nothing.
+ */
 public class DynamicClassLoader extends ClassLoader {
 
-        public Class<?> define(JiteClass jiteClass) {
-            byte[] classBytes = jiteClass.toBytes();
+        private final ClassOutput output;
+
+        public DynamicClassLoader() {
+            this(ClassOutput.NONE);
+        }
 
-            try (FileOutputStream fos = new FileOutputStream(String.format("/tmp/%s.class", jiteClass.getClassName()))) {
-                fos.write(classBytes);
-            } catch (Exception ex) {
-                ex.printStackTrace();
+        public DynamicClassLoader(ClassOutput output) {
+            this.output = output;
+        }
+
+        /**
+         * Defines a class and all of its child classes. Each class is
+         * serialized exactly once, and the tree of children is walked without
+         * recursion.
+         *
+         * @return the class of jiteClass itself
+         */
+        public Class<?> define(JiteClass jiteClass) {
+            List<JiteClass> classes = new ArrayList<>();
+            Set<JiteClass> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+            Deque<JiteClass> pending = new ArrayDeque<>();
+            pending.push(jiteClass);
+            while (!pending.isEmpty()) {
+                JiteClass next = pending.pop();
+                if (seen.add(next)) {
+                    classes.add(next);
+                    for (JiteClass child : next.getChildClasses()) {
+                        pending.push(child);
+                    }
+                }
             }
 
-            if (jiteClass.getChildClasses().size() > 0) {
-                jiteClass.getChildClasses().stream().forEach((child) -> {
-                    define(child);
-                });
+            Class<?> defined = null;
+            for (JiteClass next : classes) {
+                Class<?> klass = define(next.getClassName(), next.toBytes());
+                if (next == jiteClass) {
+                    defined = klass;
+                }
             }
+            return defined;
+        }
 
-            return super.defineClass(c(jiteClass.getClassName()), classBytes, 0, classBytes.length);
+        /**
+         * @param className the internal name of the class
+         * @param classBytes the class file
+         */
+        public Class<?> define(String className, byte[] classBytes) {
+            try {
+                output.write(className, classBytes);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return super.defineClass(c(className), classBytes, 0, classBytes.length);
         }
-    }
\ No newline at end of file
+    }
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Collects classes into a JAR file. Classes are buffered and written in
+ * batches, so the JAR is only touched once per batch. A class name that was
+ * already written is skipped, since a JAR cannot hold two entries with the
+ * same name. The JAR is complete once the output is closed.
+ *
+ * @author summers
+ */
+public class JarClassOutput implements ClassOutput {
+
+    public static final int DEFAULT_BATCH_SIZE = 64;
+
+    private final Path jarFile;
+    private final int batchSize;
+    private final JarOutputStream jar;
+    private final Set<String> names = new HashSet<>();
+    private final List<String> batchNames;
+    private final List<byte[]> batchBytes;
+    private boolean closed = false;
+
+    public JarClassOutput(Path jarFile) throws IOException {
+        this(jarFile, DEFAULT_BATCH_SIZE);
+    }
+
+    public JarClassOutput(Path jarFile, int batchSize) throws IOException {
+        this.jarFile = jarFile;
+        this.batchSize = batchSize;
+        this.jar = new JarOutputStream(new BufferedOutputStream(Files.newOutputStream(jarFile)));
+        this.batchNames = new ArrayList<>(batchSize);
+        this.batchBytes = new ArrayList<>(batchSize);
+    }
+
+    @Override
+    public synchronized void write(String className, byte[] classBytes) throws IOException {
+        if (closed) {
+            throw new IOException(jarFile + " is closed");
+        }
+        batchNames.add(className);
+        batchBytes.add(classBytes);
+        if (batchNames.size() >= batchSize) {
+            writeBatch();
+            jar.flush();
+        }
+    }
+
+    /**
+     * Writes the classes still buffered and finishes the JAR.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeBatch();
+        jar.close();
+    }
+
+    private void writeBatch() throws IOException {
+        for (int i = 0; i < batchNames.size(); i++) {
+            String entryName = batchNames.get(i) + ".class";
+            if (names.add(entryName)) {
+                jar.putNextEntry(new JarEntry(entryName));
+                jar.write(batchBytes.get(i));
+                jar.closeEntry();
+            }
+        }
+        batchNames.clear();
+        batchBytes.clear();
+    }
+
+}
@@ -0,0 +1,278 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import me.qmx.jitescript.JiteClass;
+
+/**
+ * Keeps compiled programs loaded while they are in use and lets the JVM
+ * unload them afterwards.
+ *
+ * Programs are defined in groups that share one class loader. A loader, and
+ * with it the Metaspace of its classes, can only be collected once every
+ * program in its group is gone, so groups are kept small. When more than
+ * maxPrograms programs are loaded the least recently used one is evicted.
+ * Once the last program of a full group is evicted the manager lets go of
+ * its loader.
+ *
+ * Two classes of the same name cannot share a loader, so a program whose
+ * class name is already in the open group starts a new group. Programs that
+ * all use the default name of CompilerContext end up one per loader.
+ *
+ * The manager counts the classes and bytes it defined, and those whose
+ * loader has since been collected. Callers must not keep the returned classes
+ * after evicting them, or they will never be unloaded.
+ *
+ * @author summers
+ */
+public class LoaderManager {
+
+    public static final int DEFAULT_PROGRAMS_PER_LOADER = 32;
+    public static final int DEFAULT_MAX_PROGRAMS = 1024;
+
+    private final int programsPerLoader;
+    private final int maxPrograms;
+    private final ClassOutput output;
+    private final LinkedHashMap<String, Program> programs = new LinkedHashMap<>(64, 0.75f, true);
+    private final ReferenceQueue<ClassLoader> collected = new ReferenceQueue<>();
+    private final Set<GroupReference> groupReferences = new HashSet<>();
+    private Group open;
+
+    private long definedClasses = 0;
+    private long definedBytes = 0;
+    private long unloadedClasses = 0;
+    private long unloadedBytes = 0;
+    private long evictedPrograms = 0;
+
+    public LoaderManager() {
+        this(DEFAULT_PROGRAMS_PER_LOADER, DEFAULT_MAX_PROGRAMS, ClassOutput.NONE);
+    }
+
+    public LoaderManager(int programsPerLoader, int maxPrograms, ClassOutput output) {
+        if (programsPerLoader < 1 || maxPrograms < 1) {
+            throw new IllegalArgumentException("programsPerLoader and maxPrograms must be positive");
+        }
+        this.programsPerLoader = programsPerLoader;
+        this.maxPrograms = maxPrograms;
+        this.output = output;
+    }
+
+    /**
+     * Defines a program and its child classes under a key, replacing any
+     * program already loaded under it.
+     *
+     * @return the class of jiteClass
+     */
+    public synchronized Class<?> define(String key, JiteClass jiteClass) {
+        expungeCollected();
+        evict(key);
+
+        Set<String> classNames = classNames(jiteClass);
+        if (open == null || open.programs == programsPerLoader || !Collections.disjoint(open.classNames, classNames)) {
+            openGroup();
+        }
+        Class<?> programClass = open.loader.define(jiteClass);
+        open.classNames.addAll(classNames);
+        open.programs++;
+        open.live++;
+        programs.put(key, new Program(programClass, open));
+
+        while (programs.size() > maxPrograms) {
+            Iterator<Map.Entry<String, Program>> eldest = programs.entrySet().iterator();
+            Program program = eldest.next().getValue();
+            eldest.remove();
+            release(program);
+        }
+        return programClass;
+    }
+
+    /**
+     * @return the class of the program, or null if it is not loaded
+     */
+    public synchronized Class<?> get(String key) {
+        Program program = programs.get(key);
+        return program == null ? null : program.programClass;
+    }
+
+    /**
+     * @return true if a program was loaded under key
+     */
+    public synchronized boolean evict(String key) {
+        Program program = programs.remove(key);
+        if (program == null) {
+            return false;
+        }
+        release(program);
+        return true;
+    }
+
+    public synchronized int size() {
+        return programs.size();
+    }
+
+    public synchronized long getEvictedPrograms() {
+        return evictedPrograms;
+    }
+
+    /**
+     * @return the number of classes defined and not yet unloaded
+     */
+    public synchronized long getLoadedClasses() {
+        expungeCollected();
+        return definedClasses - unloadedClasses;
+    }
+
+    /**
+     * @return the bytes of the class files defined and not yet unloaded
+     */
+    public synchronized long getLoadedBytes() {
+        expungeCollected();
+        return definedBytes - unloadedBytes;
+    }
+
+    public synchronized long getUnloadedClasses() {
+        expungeCollected();
+        return unloadedClasses;
+    }
+
+    public synchronized long getUnloadedBytes() {
+        expungeCollected();
+        return unloadedBytes;
+    }
+
+    private void openGroup() {
+        if (open != null && open.live == 0) {
+            open = null;
+        }
+        Usage usage = new Usage();
+        GroupLoader loader = new GroupLoader(output, usage);
+        groupReferences.add(new GroupReference(loader, usage, collected));
+        open = new Group(loader);
+    }
+
+    private void release(Program program) {
+        evictedPrograms++;
+        Group group = program.group;
+        group.live--;
+        if (group.live == 0 && group == open && group.programs == programsPerLoader) {
+            open = null;
+        }
+    }
+
+    private void expungeCollected() {
+        Reference<? extends ClassLoader> reference;
+        while ((reference = collected.poll()) != null) {
+            GroupReference group = (GroupReference) reference;
+            groupReferences.remove(group);
+            unloadedClasses += group.usage.classes;
+            unloadedBytes += group.usage.bytes;
+        }
+    }
+
+    private static Set<String> classNames(JiteClass jiteClass) {
+        Set<String> names = new HashSet<>();
+        Set<JiteClass> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<JiteClass> pending = new ArrayDeque<>();
+        pending.push(jiteClass);
+        while (!pending.isEmpty()) {
+            JiteClass next = pending.pop();
+            if (seen.add(next)) {
+                names.add(next.getClassName());
+                for (JiteClass child : next.getChildClasses()) {
+                    pending.push(child);
+                }
+            }
+        }
+        return names;
+    }
+
+    private final class GroupLoader extends DynamicClassLoader {
+
+        private final Usage usage;
+
+        private GroupLoader(ClassOutput output, Usage usage) {
+            super(output);
+            this.usage = usage;
+        }
+
+        @Override
+        public Class<?> define(String className, byte[] classBytes) {
+            Class<?> klass = super.define(className, classBytes);
+            usage.classes++;
+            usage.bytes += classBytes.length;
+            definedClasses++;
+            definedBytes += classBytes.length;
+            return klass;
+        }
+    }
+
+    /**
+     * What a loader defined. Kept apart from the loader so it is still
+     * readable once the loader is collected.
+     */
+    private static final class Usage {
+
+        private long classes = 0;
+        private long bytes = 0;
+    }
+
+    private static final class GroupReference extends PhantomReference<ClassLoader> {
+
+        private final Usage usage;
+
+        private GroupReference(ClassLoader loader, Usage usage, ReferenceQueue<ClassLoader> queue) {
+            super(loader, queue);
+            this.usage = usage;
+        }
+    }
+
+    private static final class Group {
+
+        private final GroupLoader loader;
+        private final Set<String> classNames = new HashSet<>();
+        private int programs = 0;
+        private int live = 0;
+
+        private Group(GroupLoader loader) {
+            this.loader = loader;
+        }
+    }
+
+    private static final class Program {
+
+        private final Class<?> programClass;
+        private final Group group;
+
+        private Program(Class<?> programClass, Group group) {
+            this.programClass = programClass;
+            this.group = group;
+        }
+    }
+
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.util.BitSet;
+import me.qmx.jitescript.CodeBlock;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.T_INT;
+import static me.qmx.jitescript.util.CodegenUtils.sig;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.analyize.TreeWalker;
+import net.saga.lang.tiny.parser.SyntaxTree;
+import static net.saga.lang.tiny.parser.SyntaxTree.NONE;
+
+/**
+ * Splits programs that would not fit in one method into private static
+ * helper methods on the same class.
+ *
+ * An outlined main allocates an int[] frame with a slot per variable address
+ * and calls one helper per chunk of the top level statements. A helper loads
+ * the variables it uses from the frame into locals when it starts and writes
+ * back the ones it assigns when it returns, so its loops run on locals. A
+ * statement sequence inside a helper that is still too large, the body of a
+ * big REPEAT for example, is split again. Around such a call the caller
+ * stores the variables the callee reads and reloads those it assigns.
+ *
+ * Sizes are estimated from the tree and errs on the large side.
+ */
+final class Outliner {
+
+    /**
+     * Bytes to move one variable between the frame and a local:
+     * aload_0, sipush, iaload or iload, istore or iastore.
+     */
+    private static final int VARIABLE_COST = 7;
+
+    /**
+     * The first address whose local in a helper, after the frame in local 0,
+     * is past 255 and so needs a wide iload or istore.
+     */
+    private static final int FIRST_WIDE_ADDRESS = 255;
+
+    /**
+     * Bytes the wide prefix and two byte index add to an iload or istore.
+     */
+    private static final int WIDE_COST = 2;
+
+    private Outliner() {
+    }
+
+    /**
+     * @return true if the sequence starting at first is estimated to be
+     * larger than the method size limit
+     */
+    static boolean isTooLarge(SyntaxTree tree, int first, CompilerContext ctx, SymbolTable symbols) {
+        int limit = ctx.getMethodSizeLimit();
+        int size = 0;
+        for (int statement = first; statement != NONE; statement = tree.getNext(statement)) {
+            size += new Usage(tree, symbols).of(statement).size;
+            if (size > limit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Compiles a program as an outlined main. main keeps no variables in
+     * locals, every statement runs in a helper.
+     */
+    static void compileMain(SyntaxTree tree, int program, CompilerContext ctx, SymbolTable symbols) {
+        ctx.startOutlining();
+        int frameSize = 0;
+        for (int symbol = 0; symbol < symbols.size(); symbol++) {
+            frameSize = Math.max(frameSize, symbols.getAddress(symbol) + 1);
+        }
+        CodeBlock main = ctx.currentBlock();
+        main.ldc(frameSize);
+        main.newarray(T_INT);
+        main.astore(0);
+        compileInHelpers(tree, program, ctx, symbols);
+    }
+
+    /**
+     * Compiles the sequence starting at first as calls to helpers, each
+     * holding as many statements as fit in the method size limit.
+     */
+    static void compileInHelpers(SyntaxTree tree, int first, CompilerContext ctx, SymbolTable symbols) {
+        int limit = ctx.getMethodSizeLimit();
+        int statement = first;
+        while (statement != NONE) {
+            int chunkStart = statement;
+            int count = 0;
+            int size = 0;
+            BitSet used = new BitSet();
+            BitSet assigned = new BitSet();
+            while (statement != NONE) {
+                Usage usage = new Usage(tree, symbols).of(statement);
+                BitSet chunkUsed = (BitSet) used.clone();
+                chunkUsed.or(usage.used);
+                BitSet chunkAssigned = (BitSet) assigned.clone();
+                chunkAssigned.or(usage.assigned);
+                int chunkSize = size + usage.size + moveCost(chunkUsed) + moveCost(chunkAssigned);
+                if (count > 0 && chunkSize > limit) {
+                    break;
+                }
+                size += usage.size;
+                used = chunkUsed;
+                assigned = chunkAssigned;
+                count++;
+                statement = tree.getNext(statement);
+            }
+            callHelper(tree, chunkStart, count, used, assigned, ctx, symbols);
+        }
+    }
+
+    /**
+     * @return the bytes to move the variables at addresses between the frame
+     * and locals
+     */
+    private static int moveCost(BitSet addresses) {
+        int wide = addresses.get(FIRST_WIDE_ADDRESS, Math.max(FIRST_WIDE_ADDRESS, addresses.length())).cardinality();
+        return VARIABLE_COST * addresses.cardinality() + WIDE_COST * wide;
+    }
+
+    private static void callHelper(SyntaxTree tree, int chunkStart, int count, BitSet used, BitSet assigned, CompilerContext ctx, SymbolTable symbols) {
+        CodeBlock caller = ctx.currentBlock();
+        BitSet callerVariables = ctx.methodVariables();
+        for (int address = used.nextSetBit(0); address >= 0; address = used.nextSetBit(address + 1)) {
+            if (callerVariables.get(address)) {
+                caller.aload(0).ldc(address).iload(ctx.localSlot(address)).iastore();
+            }
+        }
+
+        ctx.beginHelper(used);
+        CodeBlock helper = ctx.currentBlock();
+        for (int address = used.nextSetBit(0); address >= 0; address = used.nextSetBit(address + 1)) {
+            helper.aload(0).ldc(address).iaload().istore(ctx.localSlot(address));
+        }
+        int statement = chunkStart;
+        for (int i = 0; i < count; i++) {
+            TinyCompiler.compileSingleStatement(tree, statement, ctx, symbols);
+            statement = tree.getNext(statement);
+        }
+        for (int address = assigned.nextSetBit(0); address >= 0; address = assigned.nextSetBit(address + 1)) {
+            ctx.currentBlock().aload(0).ldc(address).iload(ctx.localSlot(address)).iastore();
+        }
+        String helperName = ctx.endHelper();
+
+        caller.aload(0);
+        caller.invokestatic(ctx.getClassName(), helperName, sig(void.class, int[].class));
+        for (int address = assigned.nextSetBit(0); address >= 0; address = assigned.nextSetBit(address + 1)) {
+            if (callerVariables.get(address)) {
+                caller.aload(0).ldc(address).iaload().istore(ctx.localSlot(address));
+            }
+        }
+    }
+
+    /**
+     * The estimated size of one statement with everything nested in it, and
+     * the addresses of the variables it reads or assigns.
+     */
+    private static final class Usage implements TreeWalker.Visitor {
+
+        private final SyntaxTree tree;
+        private final SymbolTable symbols;
+        private final BitSet used = new BitSet();
+        private final BitSet assigned = new BitSet();
+        private int size = 0;
+
+        private Usage(SyntaxTree tree, SymbolTable symbols) {
+            this.tree = tree;
+            this.symbols = symbols;
+        }
+
+        private Usage of(int statement) {
+            TreeWalker.walkSubtree(tree, statement, this);
+            return this;
+        }
+
+        @Override
+        public void preVisit(int node) {
+            String name = tree.getName(node);
+            if (name != null && !name.isEmpty()) {
+                int address = symbols.getAddress(TinyCompiler.symbol(tree, node, symbols));
+                used.set(address);
+                if (tree.getStatementKind(node) != null) {
+                    assigned.set(address);
+                }
+                if (address >= FIRST_WIDE_ADDRESS) {
+                    size += WIDE_COST;
+                }
+            }
+            size += weight(node);
+        }
+
+        private int weight(int node) {
+            if (tree.getStatementKind(node) != null) {
+                switch (tree.getStatementKind(node)) {
+                    case READ:
+                        return 12;
+                    case WRITE:
+                    case IF:
+                        return 8;
+                    default:
+                        return 6;
+                }
+            }
+            switch (tree.getExpressionKind(node)) {
+                case OperatorExpression:
+                    switch (tree.getOperationAttribute(node)) {
+                        case EQ:
+                        case LT:
+                            return 10;
+                        default:
+                            return 1;
+                    }
+                case ConstantExpression:
+                    return 5;
+                default:
+                    return 2;
+            }
+        }
+    }
+
+}
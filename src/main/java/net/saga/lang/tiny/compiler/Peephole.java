@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ATHROW;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.BIPUSH;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.DUP;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.GOTO;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_0;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IFEQ;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IFNONNULL;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IFNULL;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IF_ACMPNE;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IF_ICMPEQ;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ILOAD;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IRETURN;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ISTORE;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.LDC;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.POP;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.POP2;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.RETURN;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.SIPUSH;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.AbstractInsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.InsnList;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.InsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.IntInsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.JumpInsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.LabelNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.LdcInsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Rewrites an instruction list with a table of rules keyed by opcode. Every
+ * instruction is offered to the rules registered for its opcode, and passes
+ * are repeated until no rule changes anything.
+ *
+ * Labels, line numbers and frames are not instructions. A rule looks past
+ * them, except past a label some jump targets, since code may arrive there
+ * from elsewhere.
+ *
+ * @author summers
+ */
+public class Peephole {
+
+    /**
+     * A rewrite of the instructions at and after insn. A rule may replace or
+     * remove insn but must not touch anything before it, and must only
+     * return true when it changed the list.
+     */
+    @FunctionalInterface
+    public interface Rule {
+
+        boolean apply(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets);
+    }
+
+    private static final int MAX_PASSES = 16;
+    private static final int MAX_THREADED_JUMPS = 16;
+
+    private final Map<Integer, List<Rule>> rules = new HashMap<>();
+
+    /**
+     * @return the rules the compiler uses by default
+     */
+    public static Peephole standard() {
+        Peephole peephole = new Peephole()
+                .rule(LDC, Peephole::pushSmallConstant)
+                .rule(ISTORE, Peephole::storeThenLoad);
+        for (int opcode = IFEQ; opcode <= IF_ACMPNE; opcode++) {
+            peephole.rule(opcode, Peephole::threadJump).rule(opcode, Peephole::jumpToNext);
+        }
+        peephole.rule(IFNULL, Peephole::threadJump).rule(IFNULL, Peephole::jumpToNext)
+                .rule(IFNONNULL, Peephole::threadJump).rule(IFNONNULL, Peephole::jumpToNext)
+                .rule(GOTO, Peephole::threadJump).rule(GOTO, Peephole::jumpToNext)
+                .rule(GOTO, Peephole::unreachable).rule(ATHROW, Peephole::unreachable);
+        for (int opcode = IRETURN; opcode <= RETURN; opcode++) {
+            peephole.rule(opcode, Peephole::unreachable);
+        }
+        return peephole;
+    }
+
+    /**
+     * Registers a rule. Rules for the same opcode are tried in the order
+     * they were added.
+     */
+    public Peephole rule(int opcode, Rule rule) {
+        List<Rule> opcodeRules = rules.get(opcode);
+        if (opcodeRules == null) {
+            opcodeRules = new ArrayList<>(2);
+            rules.put(opcode, opcodeRules);
+        }
+        opcodeRules.add(rule);
+        return this;
+    }
+
+    public InsnList optimize(InsnList instructions) {
+        boolean changed = true;
+        for (int pass = 0; changed && pass < MAX_PASSES; pass++) {
+            changed = false;
+            Set<LabelNode> jumpTargets = jumpTargets(instructions);
+            AbstractInsnNode insn = instructions.getFirst();
+            while (insn != null) {
+                AbstractInsnNode previous = insn.getPrevious();
+                if (applyRules(instructions, insn, jumpTargets)) {
+                    changed = true;
+                    insn = previous == null ? instructions.getFirst() : previous.getNext();
+                } else {
+                    insn = insn.getNext();
+                }
+            }
+        }
+        return instructions;
+    }
+
+    private boolean applyRules(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        if (insn.getOpcode() < 0) {
+            return false;
+        }
+        List<Rule> opcodeRules = rules.get(insn.getOpcode());
+        if (opcodeRules == null) {
+            return false;
+        }
+        for (Rule rule : opcodeRules) {
+            if (rule.apply(instructions, insn, jumpTargets)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Set<LabelNode> jumpTargets(InsnList instructions) {
+        Set<LabelNode> targets = new HashSet<>();
+        for (AbstractInsnNode insn = instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof JumpInsnNode) {
+                targets.add(((JumpInsnNode) insn).label);
+            }
+        }
+        return targets;
+    }
+
+    /**
+     * @return the first instruction after insn that control can only reach
+     * from insn, or null if there is none
+     */
+    private static AbstractInsnNode nextInstruction(AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        AbstractInsnNode next = insn.getNext();
+        while (next != null && next.getOpcode() < 0) {
+            if (jumpTargets.contains(next)) {
+                return null;
+            }
+            next = next.getNext();
+        }
+        return next;
+    }
+
+    /**
+     * @return the first instruction executed after jumping to label
+     */
+    private static AbstractInsnNode instructionAt(LabelNode label) {
+        AbstractInsnNode insn = label;
+        while (insn != null && insn.getOpcode() < 0) {
+            insn = insn.getNext();
+        }
+        return insn;
+    }
+
+    /**
+     * ldc of a small int becomes iconst_n, bipush or sipush.
+     */
+    private static boolean pushSmallConstant(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        Object constant = ((LdcInsnNode) insn).cst;
+        if (!(constant instanceof Integer)) {
+            return false;
+        }
+        int value = (Integer) constant;
+        AbstractInsnNode push;
+        if (value >= -1 && value <= 5) {
+            push = new InsnNode(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            push = new IntInsnNode(BIPUSH, value);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            push = new IntInsnNode(SIPUSH, value);
+        } else {
+            return false;
+        }
+        instructions.set(insn, push);
+        return true;
+    }
+
+    /**
+     * istore n; iload n becomes dup; istore n.
+     */
+    private static boolean storeThenLoad(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        AbstractInsnNode next = nextInstruction(insn, jumpTargets);
+        if (next == null || next.getOpcode() != ILOAD || ((VarInsnNode) next).var != ((VarInsnNode) insn).var) {
+            return false;
+        }
+        instructions.insertBefore(insn, new InsnNode(DUP));
+        instructions.remove(next);
+        return true;
+    }
+
+    /**
+     * A jump to a label that is followed by a goto jumps to the goto's target
+     * instead. Chains that loop back on themselves are left alone.
+     */
+    private static boolean threadJump(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        JumpInsnNode jump = (JumpInsnNode) insn;
+        Set<LabelNode> seen = new HashSet<>();
+        LabelNode target = jump.label;
+        for (int hops = 0; hops < MAX_THREADED_JUMPS; hops++) {
+            if (!seen.add(target)) {
+                return false;
+            }
+            AbstractInsnNode destination = instructionAt(target);
+            if (destination == null || destination.getOpcode() != GOTO || destination == jump) {
+                break;
+            }
+            target = ((JumpInsnNode) destination).label;
+        }
+        if (target == jump.label) {
+            return false;
+        }
+        jump.label = target;
+        return true;
+    }
+
+    /**
+     * A jump to the instruction right after it is removed. A conditional
+     * jump still pops its operands.
+     */
+    private static boolean jumpToNext(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        JumpInsnNode jump = (JumpInsnNode) insn;
+        for (AbstractInsnNode next = insn.getNext(); next != null && next.getOpcode() < 0; next = next.getNext()) {
+            if (next == jump.label) {
+                int opcode = jump.getOpcode();
+                if (opcode == GOTO) {
+                    instructions.remove(jump);
+                } else if (opcode >= IF_ICMPEQ && opcode <= IF_ACMPNE) {
+                    instructions.set(jump, new InsnNode(POP2));
+                } else {
+                    instructions.set(jump, new InsnNode(POP));
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Instructions after a goto, return or throw are removed up to the next
+     * label something jumps to. Labels and line numbers are kept.
+     */
+    private static boolean unreachable(InsnList instructions, AbstractInsnNode insn, Set<LabelNode> jumpTargets) {
+        boolean changed = false;
+        AbstractInsnNode next = insn.getNext();
+        while (next != null && !jumpTargets.contains(next)) {
+            AbstractInsnNode following = next.getNext();
+            if (next.getOpcode() >= 0) {
+                instructions.remove(next);
+                changed = true;
+            }
+            next = following;
+        }
+        return changed;
+    }
+
+}
@@ -0,0 +1,297 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.compiler;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the classes of recently run programs loaded, so a program seen
+ * before is not scanned, parsed, analyzed or compiled again.
+ *
+ * Sources are normalized before lookup: \r\n line endings become \n,
+ * trailing whitespace is dropped from every line and trailing blank lines
+ * are dropped. A lone \r is not a line ending to the scanner and is kept, so
+ * line numbers are unchanged.
+ *
+ * The cache is split into stripes, each with its own lock, its own least
+ * recently used order and an equal share of maxWeight. An entry weighs the
+ * bytes of its class files. While a program compiles its entry holds a
+ * future, so concurrent requests for the same program wait for that one
+ * compilation instead of starting their own.
+ *
+ * Every program gets its own loader so evicted classes can be unloaded.
+ * Given a {@link ClassCache}, misses are looked up on disk before compiling.
+ *
+ * @author summers
+ */
+public class ProgramCache {
+
+    public static final int DEFAULT_STRIPES = 16;
+
+    private static final MethodType MAIN = MethodType.methodType(void.class, String[].class);
+
+    private final CompilerOptions options;
+    private final ClassCache classCache;
+    private final Stripe[] stripes;
+    private final long stripeWeight;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ProgramCache(CompilerOptions options, long maxWeight) {
+        this(options, maxWeight, DEFAULT_STRIPES, null);
+    }
+
+    /**
+     * @param maxWeight the bytes of class files to keep, over all stripes
+     * @param classCache the cache on disk, or null to always compile
+     */
+    public ProgramCache(CompilerOptions options, long maxWeight, int stripes, ClassCache classCache) {
+        if (stripes < 1 || maxWeight < 1) {
+            throw new IllegalArgumentException("stripes and maxWeight must be positive");
+        }
+        this.options = options;
+        this.classCache = classCache;
+        this.stripes = new Stripe[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeWeight = Math.max(1, maxWeight / stripes);
+    }
+
+    /**
+     * @return the class of the program, compiling it if it is not cached
+     */
+    public Class<?> load(CharSequence source) {
+        return program(normalize(source)).programClass;
+    }
+
+    /**
+     * Runs the main method of the program.
+     */
+    public void run(CharSequence source, String... args) throws Throwable {
+        program(normalize(source)).main.invokeExact(args);
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of programs loaded or compiling
+     */
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return the bytes of class files held by the cache
+     */
+    public long getWeight() {
+        long weight = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                weight += stripe.weight;
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * @return the source with \r\n line endings as \n and no trailing
+     * whitespace
+     */
+    public static String normalize(CharSequence source) {
+        StringBuilder normalized = new StringBuilder(source.length());
+        int lineStart = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            if (c == '\r' && i + 1 < source.length() && source.charAt(i + 1) == '\n') {
+                continue;
+            }
+            if (c == '\n') {
+                trimLine(normalized, lineStart);
+                normalized.append('\n');
+                lineStart = normalized.length();
+            } else {
+                normalized.append(c);
+            }
+        }
+        trimLine(normalized, lineStart);
+        int end = normalized.length();
+        while (end > 0 && normalized.charAt(end - 1) == '\n') {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    private static void trimLine(StringBuilder normalized, int lineStart) {
+        int end = normalized.length();
+        while (end > lineStart && Character.isWhitespace(normalized.charAt(end - 1))) {
+            end--;
+        }
+        normalized.setLength(end);
+    }
+
+    private Program program(String source) {
+        Stripe stripe = stripes[(source.hashCode() & Integer.MAX_VALUE) % stripes.length];
+        Entry entry;
+        boolean compile = false;
+        synchronized (stripe) {
+            entry = stripe.entries.get(source);
+            if (entry == null) {
+                entry = new Entry();
+                stripe.entries.put(source, entry);
+                compile = true;
+            }
+        }
+
+        if (!compile) {
+            hits.incrementAndGet();
+            try {
+                return entry.program.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ex);
+            } catch (ExecutionException ex) {
+                if (ex.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) ex.getCause();
+                }
+                throw new IllegalStateException(ex.getCause());
+            }
+        }
+
+        misses.incrementAndGet();
+        Program program;
+        try {
+            program = define(source);
+        } catch (RuntimeException | Error ex) {
+            synchronized (stripe) {
+                stripe.entries.remove(source, entry);
+            }
+            entry.program.completeExceptionally(ex);
+            throw ex;
+        }
+        synchronized (stripe) {
+            if (stripe.entries.get(source) == entry) {
+                entry.weight = program.weight;
+                stripe.weight += program.weight;
+                evict(stripe);
+            }
+        }
+        entry.program.complete(program);
+        return program;
+    }
+
+    private Program define(String source) {
+        Weigher weigher = new Weigher();
+        DynamicClassLoader loader = new DynamicClassLoader(weigher);
+        Class<?> programClass;
+        if (classCache != null) {
+            programClass = classCache.load(source, options, loader);
+        } else {
+            programClass = loader.define(options.compile(source, ClassCache.className(source, options)).jiteClass);
+        }
+        try {
+            MethodHandle main = MethodHandles.publicLookup().findStatic(programClass, "main", MAIN);
+            return new Program(programClass, main, weigher.bytes);
+        } catch (NoSuchMethodException | IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Drops the least recently used programs that have finished compiling
+     * until the stripe fits its share of the weight.
+     */
+    private void evict(Stripe stripe) {
+        Iterator<Entry> entries = stripe.entries.values().iterator();
+        while (stripe.weight > stripeWeight && entries.hasNext()) {
+            Entry eldest = entries.next();
+            if (eldest.weight >= 0) {
+                entries.remove();
+                stripe.weight -= eldest.weight;
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class Stripe {
+
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+        private long weight = 0;
+    }
+
+    private static final class Entry {
+
+        private final CompletableFuture<Program> program = new CompletableFuture<>();
+        /**
+         * -1 until the program is compiled.
+         */
+        private long weight = -1;
+    }
+
+    private static final class Program {
+
+        private final Class<?> programClass;
+        private final MethodHandle main;
+        private final long weight;
+
+        private Program(Class<?> programClass, MethodHandle main, long weight) {
+            this.programClass = programClass;
+            this.main = main;
+            this.weight = weight;
+        }
+    }
+
+    private static final class Weigher implements ClassOutput {
+
+        private long bytes = 0;
+
+        @Override
+        public void write(String className, byte[] classBytes) {
+            bytes += classBytes.length;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
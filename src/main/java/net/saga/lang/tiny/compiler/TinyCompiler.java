@@ -23,31 +23,50 @@ import static me.qmx.jitescript.util.CodegenUtils.ci;
 import static me.qmx.jitescript.util.CodegenUtils.p;
 import static me.qmx.jitescript.util.CodegenUtils.sig;
 import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.analyize.TreeWalker;
 import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.NodeTree;
+import net.saga.lang.tiny.parser.SyntaxTree;
 
 public class TinyCompiler {
 
+    /**
+     * Compiles a statement and every statement after it. The sequence is
+     * compiled in a loop so only nested statements add to the stack.
+     */
     public static CompilerContext compileStatement(Node statementNode, CompilerContext compilerContext, SymbolTable symbols) {
-        CodeBlock block = compilerContext.currentBlock();
-        if (compilerContext.shouldMarkLine(statementNode.getLineNumber())) {
-            LabelNode instructionLabel = new LabelNode();
-            block.label(instructionLabel);
-            block.line(statementNode.getLineNumber(), instructionLabel);
-            compilerContext.markLine(statementNode.getLineNumber());
+        NodeTree tree = NodeTree.of(statementNode);
+        return compileStatement(tree, tree.root(), compilerContext, symbols);
+    }
+
+    /**
+     * @see #compileStatement(Node, CompilerContext, SymbolTable)
+     */
+    public static CompilerContext compileStatement(SyntaxTree tree, int statementNode, CompilerContext compilerContext, SymbolTable symbols) {
+        if (compilerContext.isOutlining() && Outliner.isTooLarge(tree, statementNode, compilerContext, symbols)) {
+            Outliner.compileInHelpers(tree, statementNode, compilerContext, symbols);
+            return compilerContext;
         }
-        switch (statementNode.getStatementKind()) {
+        for (int statement = statementNode; statement != SyntaxTree.NONE; statement = tree.getNext(statement)) {
+            compileSingleStatement(tree, statement, compilerContext, symbols);
+        }
+        return compilerContext;
+    }
+
+    static void compileSingleStatement(SyntaxTree tree, int statementNode, CompilerContext compilerContext, SymbolTable symbols) {
+        CodeBlock block = compilerContext.currentBlock();
+        markLine(tree, statementNode, compilerContext);
+        switch (tree.getStatementKind(statementNode)) {
             case IF:
                 LabelNode elseLabel = new LabelNode();
                 LabelNode afterElseLabel = new LabelNode();
 
-                compileExpression(statementNode.getChild(0), compilerContext, symbols);
-                block.iconst_1();
-                block.if_icmpne(elseLabel);
-                compileStatement(statementNode.getChild(1), compilerContext, symbols);
+                branchUnless(tree, tree.getChild(statementNode, 0), elseLabel, compilerContext, symbols);
+                compileStatement(tree, tree.getChild(statementNode, 1), compilerContext, symbols);
                 block.go_to(afterElseLabel);
                 block.label(elseLabel);
-                if (statementNode.getChild(2) != null) {
-                    compileStatement(statementNode.getChild(2), compilerContext, symbols);
+                if (tree.getChild(statementNode, 2) != SyntaxTree.NONE) {
+                    compileStatement(tree, tree.getChild(statementNode, 2), compilerContext, symbols);
                 }
                 block.label(afterElseLabel);
 
@@ -55,93 +74,153 @@ public class TinyCompiler {
             case REPEAT:
                 LabelNode startRepeat = new LabelNode();
                 block.label(startRepeat);
-                compileStatement(statementNode.getChild(0), compilerContext, symbols);
-                compileExpression(statementNode.getChild(1), compilerContext, symbols);
-                LabelNode exit = new LabelNode();
-                block.iconst_1();
-                block.if_icmpeq(exit);
-                block.go_to(startRepeat);
-                block.label(exit);
+                compileStatement(tree, tree.getChild(statementNode, 0), compilerContext, symbols);
+                branchUnless(tree, tree.getChild(statementNode, 1), startRepeat, compilerContext, symbols);
                 break;
             case ASSIGN:
-                compileExpression(statementNode.getChild(0), compilerContext, symbols);
-                if (statementNode.getLineNumber() == symbols.get(statementNode.getName()).get(0).lineNumber) {
-                    LabelNode varLabel = new LabelNode();
-                    compilerContext.currentBlock().label(varLabel);
-                    compilerContext.currentBlock().visitLocalVariable(statementNode.getName(), org.objectweb.asm.Type.getDescriptor(int.class), sig(int.class), varLabel, compilerContext.endLabel, symbols.getAddress(statementNode.getName()));
-                }
-                block.istore(symbols.getAddress(statementNode.getName()));
+                compileExpression(tree, tree.getChild(statementNode, 0), compilerContext, symbols);
+                storeVariable(tree, statementNode, compilerContext, symbols);
                 break;
             case READ:
                 block.invokestatic(p(System.class), "console", sig(Console.class));
                 block.invokevirtual(p(Console.class), "readLine", sig(String.class));
                 block.invokestatic(p(Integer.class), "parseInt", sig(int.class, String.class));
-                if (statementNode.getLineNumber() == symbols.get(statementNode.getName()).get(0).lineNumber) {
-                    LabelNode varLabel = new LabelNode();
-                    compilerContext.currentBlock().label(varLabel);
-                    compilerContext.currentBlock().visitLocalVariable(statementNode.getName(), org.objectweb.asm.Type.getDescriptor(int.class), sig(int.class), varLabel, compilerContext.endLabel, symbols.getAddress(statementNode.getName()));
-                }
-                block.istore(symbols.getAddress(statementNode.getName()));
+                storeVariable(tree, statementNode, compilerContext, symbols);
                 break;
             case WRITE:
                 block.getstatic(p(System.class), "out", ci(PrintStream.class));
-                compileExpression(statementNode.getChild(0), compilerContext, symbols);
+                compileExpression(tree, tree.getChild(statementNode, 0), compilerContext, symbols);
                 block.invokevirtual(p(PrintStream.class), "println", sig(void.class, int.class));
                 break;
             default:
-                throw new AssertionError(statementNode.getStatementKind().name());
+                throw new AssertionError(tree.getStatementKind(statementNode).name());
         }
+    }
 
-        if (statementNode.getNext() != null) {
-            return compileStatement(statementNode.getNext(), compilerContext, symbols);
+    /**
+     * Compiles a condition as a jump taken when it is false. A comparison
+     * jumps on its operands directly instead of producing 0 or 1 first, and a
+     * constant condition becomes an unconditional jump or nothing at all.
+     */
+    private static void branchUnless(SyntaxTree tree, int condition, LabelNode target, CompilerContext ctx, SymbolTable symbols) {
+        CodeBlock block = ctx.currentBlock();
+        switch (tree.getExpressionKind(condition)) {
+            case OperatorExpression:
+                switch (tree.getOperationAttribute(condition)) {
+                    case EQ:
+                        markLine(tree, condition, ctx);
+                        compileExpression(tree, tree.getChild(condition, 0), ctx, symbols);
+                        compileExpression(tree, tree.getChild(condition, 1), ctx, symbols);
+                        block.if_icmpne(target);
+                        return;
+                    case LT:
+                        markLine(tree, condition, ctx);
+                        compileExpression(tree, tree.getChild(condition, 0), ctx, symbols);
+                        compileExpression(tree, tree.getChild(condition, 1), ctx, symbols);
+                        block.if_icmpge(target);
+                        return;
+                    default:
+                        break;
+                }
+                break;
+            case ConstantExpression:
+                markLine(tree, condition, ctx);
+                if (tree.getValue(condition) == 0) {
+                    block.go_to(target);
+                }
+                return;
+            default:
+                break;
         }
-
-        return compilerContext;
+        compileExpression(tree, condition, ctx, symbols);
+        block.ifeq(target);
     }
 
-    public static CompilerContext compileExpression(Node expressionNode, CompilerContext ctx, SymbolTable symbols) {
-        if (ctx.shouldMarkLine(expressionNode.getLineNumber())) {
+    private static void markLine(SyntaxTree tree, int node, CompilerContext ctx) {
+        int lineNumber = tree.getLineNumber(node);
+        if (ctx.shouldMarkLine(lineNumber)) {
             LabelNode instructionLabel = new LabelNode();
             ctx.currentBlock().label(instructionLabel);
-            ctx.currentBlock().line(expressionNode.getLineNumber(), instructionLabel);
-            ctx.markLine(expressionNode.getLineNumber());
+            ctx.currentBlock().line(lineNumber, instructionLabel);
+            ctx.markLine(lineNumber);
         }
+    }
 
-        switch (expressionNode.getExpressionKind()) {
-            case OperatorExpression:
+    private static void storeVariable(SyntaxTree tree, int statementNode, CompilerContext compilerContext, SymbolTable symbols) {
+        int symbol = symbol(tree, statementNode, symbols);
+        if (compilerContext.isDebug() && tree.getLineNumber(statementNode) == symbols.getFirstLine(symbol)) {
+            LabelNode varLabel = new LabelNode();
+            compilerContext.currentBlock().label(varLabel);
+            compilerContext.currentBlock().visitLocalVariable(tree.getName(statementNode), org.objectweb.asm.Type.getDescriptor(int.class), sig(int.class), varLabel, compilerContext.endLabel, compilerContext.localSlot(symbols.getAddress(symbol)));
+        }
+        compilerContext.currentBlock().istore(compilerContext.localSlot(symbols.getAddress(symbol)));
+    }
+
+    /**
+     * Nodes that went through the analyzer carry their symbol id. Anything
+     * else falls back to looking the name up once.
+     */
+    static int symbol(SyntaxTree tree, int node, SymbolTable symbols) {
+        int symbol = tree.getSymbol(node);
+        return symbol != Node.NO_SYMBOL ? symbol : symbols.getSymbol(tree.getName(node));
+    }
 
-                compileExpression(expressionNode.getChild(0), ctx, symbols);
-                compileExpression(expressionNode.getChild(1), ctx, symbols);
-                addOperator(expressionNode, ctx);
-                return ctx;
+    /**
+     * Compiles an expression. Operands are emitted in post order by a
+     * {@link TreeWalker}, so deeply nested expressions do not use the stack.
+     */
+    public static CompilerContext compileExpression(Node expressionNode, CompilerContext ctx, SymbolTable symbols) {
+        NodeTree tree = NodeTree.of(expressionNode);
+        return compileExpression(tree, tree.root(), ctx, symbols);
+    }
+
+    /**
+     * @see #compileExpression(Node, CompilerContext, SymbolTable)
+     */
+    public static CompilerContext compileExpression(SyntaxTree tree, int expressionNode, CompilerContext ctx, SymbolTable symbols) {
+        TreeWalker.walk(tree, expressionNode, new TreeWalker.Visitor() {
+            @Override
+            public void preVisit(int node) {
+                markLine(tree, node, ctx);
+            }
+
+            @Override
+            public void postVisit(int node) {
+                compileExpressionNode(tree, node, ctx, symbols);
+            }
+        });
+        return ctx;
+    }
+
+    private static void compileExpressionNode(SyntaxTree tree, int expressionNode, CompilerContext ctx, SymbolTable symbols) {
+        switch (tree.getExpressionKind(expressionNode)) {
+            case OperatorExpression:
+                addOperator(tree, expressionNode, ctx);
+                return;
             case ConstantExpression:
-                ctx.currentBlock().ldc(expressionNode.getValue());
-                return ctx;
+                ctx.currentBlock().ldc(tree.getValue(expressionNode));
+                return;
 
             case IdentifierExpression:
-                if (expressionNode.getLineNumber() == symbols.get(expressionNode.getName()).get(0).lineNumber) {
+                int symbol = symbol(tree, expressionNode, symbols);
+                if (ctx.isDebug() && tree.getLineNumber(expressionNode) == symbols.getFirstLine(symbol)) {
                     LabelNode varLabel = new LabelNode();
                     ctx.currentBlock().label(varLabel);
-                    ctx.currentBlock().visitLocalVariable(expressionNode.getName(), org.objectweb.asm.Type.getDescriptor(int.class), sig(int.class), varLabel, ctx.endLabel, symbols.getAddress(expressionNode.getName()));
+                    ctx.currentBlock().visitLocalVariable(tree.getName(expressionNode), org.objectweb.asm.Type.getDescriptor(int.class), sig(int.class), varLabel, ctx.endLabel, ctx.localSlot(symbols.getAddress(symbol)));
                 }
-                ctx.currentBlock().iload(symbols.getAddress(expressionNode.getName()));
-                return ctx;
+                ctx.currentBlock().iload(ctx.localSlot(symbols.getAddress(symbol)));
+                return;
             default:
-                throw new AssertionError(expressionNode.getExpressionKind().name());
+                throw new AssertionError(tree.getExpressionKind(expressionNode).name());
 
         }
 
     }
 
-    private static void addOperator(Node expressionNode, CompilerContext ctx) {
+    private static void addOperator(SyntaxTree tree, int expressionNode, CompilerContext ctx) {
         CodeBlock block = ctx.currentBlock();
-        if (ctx.shouldMarkLine(expressionNode.getLineNumber())) {
-            LabelNode instructionLabel = new LabelNode();
-            ctx.currentBlock().label(instructionLabel);
-            ctx.currentBlock().line(expressionNode.getLineNumber(), instructionLabel);
-            ctx.markLine(expressionNode.getLineNumber());
-        }
-        switch (expressionNode.getOperationAttribute()) {
+        markLine(tree, expressionNode, ctx);
+        switch (tree.getOperationAttribute(expressionNode)) {
             case MULTIPLICATION:
                 block.imul();
                 return;
@@ -177,14 +256,30 @@ public class TinyCompiler {
                 return;
             }
             default:
-                throw new RuntimeException("Wrong operation:" + expressionNode.getOperationAttribute());
+                throw new RuntimeException("Wrong operation:" + tree.getOperationAttribute(expressionNode));
         }
 
     }
 
+    /**
+     * Compiles a program into a static main. A program too large for one
+     * method is split into helper methods, see {@link Outliner}.
+     */
     public static CompilerContext compileProgram(Node parseTree, CompilerContext compilerContext, SymbolTable symbols) {
+        return compileProgram(NodeTree.of(parseTree), compilerContext, symbols);
+    }
+
+    /**
+     * @see #compileProgram(Node, CompilerContext, SymbolTable)
+     */
+    public static CompilerContext compileProgram(SyntaxTree tree, CompilerContext compilerContext, SymbolTable symbols) {
+        int parseTree = tree.root();
 
-        compileStatement(parseTree, compilerContext, symbols); //Compile expression
+        if (compilerContext.getMethodSizeLimit() > 0 && Outliner.isTooLarge(tree, parseTree, compilerContext, symbols)) {
+            Outliner.compileMain(tree, parseTree, compilerContext, symbols);
+        } else {
+            compileStatement(tree, parseTree, compilerContext, symbols); //Compile expression
+        }
         compilerContext.currentBlock().label(compilerContext.endLabel);
         compilerContext.currentBlock().voidreturn(); // return value of expression
 
@@ -0,0 +1,270 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.interpreter;
+
+import java.util.Arrays;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.analyize.TreeWalker;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.NodeTree;
+import net.saga.lang.tiny.parser.SyntaxTree;
+import net.saga.lang.tiny.scanner.TokenType;
+import static net.saga.lang.tiny.interpreter.Program.*;
+
+/**
+ * Turns an analyzed parse tree into a {@link Program}.
+ *
+ * Like {@link net.saga.lang.tiny.compiler.TinyCompiler}, conditions branch
+ * on their comparison directly, and statement sequences are compiled in a
+ * loop while expressions are walked with a {@link TreeWalker}. An
+ * expression assigned to a variable is computed straight into the
+ * variable's register.
+ *
+ * @author summers
+ */
+public final class Assembler {
+
+    private final SyntaxTree tree;
+    private final SymbolTable symbols;
+    private final int variables;
+    private int[] code = new int[64];
+    private int length = 0;
+    private int nextTemporary;
+    private int frameSize;
+    /**
+     * Where the last instruction writing a temporary starts, or -1. If it is
+     * also the last instruction, an assignment can retarget it.
+     */
+    private int lastWrite = -1;
+
+    private Assembler(SyntaxTree tree, SymbolTable symbols) {
+        this.tree = tree;
+        this.symbols = symbols;
+        this.variables = symbols.size();
+        this.nextTemporary = variables;
+        this.frameSize = variables;
+    }
+
+    public static Program assemble(Node parseTree, SymbolTable symbols) {
+        return assemble(NodeTree.of(parseTree), symbols);
+    }
+
+    public static Program assemble(SyntaxTree tree, SymbolTable symbols) {
+        Assembler assembler = new Assembler(tree, symbols);
+        assembler.statements(tree.root());
+        assembler.emit(HALT);
+        return new Program(Arrays.copyOf(assembler.code, assembler.length), assembler.variables, assembler.frameSize);
+    }
+
+    private void statements(int first) {
+        for (int statement = first; statement != SyntaxTree.NONE; statement = tree.getNext(statement)) {
+            statement(statement);
+        }
+    }
+
+    private void statement(int statement) {
+        switch (tree.getStatementKind(statement)) {
+            case IF: {
+                int elseJump = branchUnless(tree.getChild(statement, 0));
+                statements(tree.getChild(statement, 1));
+                if (tree.getChild(statement, 2) != SyntaxTree.NONE) {
+                    int endJump = jump(JUMP, -1);
+                    patch(elseJump);
+                    statements(tree.getChild(statement, 2));
+                    patch(endJump);
+                } else {
+                    patch(elseJump);
+                }
+                break;
+            }
+            case REPEAT: {
+                int start = length;
+                statements(tree.getChild(statement, 0));
+                int exitJump = branchUnless(tree.getChild(statement, 1));
+                if (exitJump >= 0) {
+                    code[exitJump] = start;
+                }
+                break;
+            }
+            case ASSIGN: {
+                int register = expression(tree.getChild(statement, 0));
+                int variable = variable(statement);
+                if (register >= variables && lastWrite >= 0 && lastWrite + length(code[lastWrite]) == length) {
+                    code[lastWrite + 1] = variable;
+                } else {
+                    emit(MOVE, variable, register);
+                }
+                nextTemporary = variables;
+                break;
+            }
+            case READ:
+                emit(READ, variable(statement));
+                break;
+            case WRITE:
+                emit(WRITE, expression(tree.getChild(statement, 0)));
+                nextTemporary = variables;
+                break;
+            default:
+                throw new AssertionError(tree.getStatementKind(statement).name());
+        }
+    }
+
+    /**
+     * Emits a jump taken when the condition is false.
+     *
+     * @return the index of the jump's target operand, or -1 if the
+     * condition is a true constant and nothing was emitted
+     */
+    private int branchUnless(int condition) {
+        switch (tree.getExpressionKind(condition)) {
+            case ConstantExpression:
+                return tree.getValue(condition) == 0 ? jump(JUMP, -1) : -1;
+            case OperatorExpression:
+                switch (tree.getOperationAttribute(condition)) {
+                    case EQ:
+                    case LT: {
+                        int a = expression(tree.getChild(condition, 0));
+                        int b = expression(tree.getChild(condition, 1));
+                        nextTemporary = variables;
+                        emit(tree.getOperationAttribute(condition) == TokenType.EQ ? JUMP_NE : JUMP_GE, a, b, -1);
+                        return length - 1;
+                    }
+                    default:
+                        break;
+                }
+                break;
+            default:
+                break;
+        }
+        int value = expression(condition);
+        nextTemporary = variables;
+        emit(JUMP_ZERO, value, -1);
+        return length - 1;
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @return the register holding its value
+     */
+    private int expression(int expression) {
+        Operands operands = new Operands();
+        TreeWalker.walkSubtree(tree, expression, operands);
+        return operands.registers[0];
+    }
+
+    /**
+     * Emits the nodes of an expression in post order, keeping the registers
+     * of operands not yet used on a stack.
+     */
+    private final class Operands implements TreeWalker.Visitor {
+
+        private int[] registers = new int[8];
+        private int top = 0;
+
+        @Override
+        public void postVisit(int node) {
+            int register;
+            switch (tree.getExpressionKind(node)) {
+                case ConstantExpression:
+                    register = temporary();
+                    lastWrite = length;
+                    emit(CONST, register, tree.getValue(node));
+                    break;
+                case IdentifierExpression:
+                    register = variable(node);
+                    break;
+                case OperatorExpression: {
+                    int b = registers[--top];
+                    int a = registers[--top];
+                    release(b);
+                    release(a);
+                    register = temporary();
+                    lastWrite = length;
+                    emit(operator(node), register, a, b);
+                    break;
+                }
+                default:
+                    throw new AssertionError(tree.getExpressionKind(node).name());
+            }
+            if (top == registers.length) {
+                registers = Arrays.copyOf(registers, registers.length * 2);
+            }
+            registers[top++] = register;
+        }
+    }
+
+    private int operator(int node) {
+        switch (tree.getOperationAttribute(node)) {
+            case ADDITION:
+                return ADD;
+            case SUBTRACTION:
+                return SUB;
+            case MULTIPLICATION:
+                return MUL;
+            case INT_DIVISION:
+                return DIV;
+            case EQ:
+                return EQ;
+            case LT:
+                return LT;
+            default:
+                throw new RuntimeException("Wrong operation:" + tree.getOperationAttribute(node));
+        }
+    }
+
+    private int variable(int node) {
+        int symbol = tree.getSymbol(node);
+        return symbol != Node.NO_SYMBOL ? symbol : symbols.getSymbol(tree.getName(node));
+    }
+
+    private int temporary() {
+        int register = nextTemporary++;
+        frameSize = Math.max(frameSize, nextTemporary);
+        return register;
+    }
+
+    /**
+     * Temporaries are freed in the reverse order they were taken, so only
+     * the newest one can be released.
+     */
+    private void release(int register) {
+        if (register >= variables && register == nextTemporary - 1) {
+            nextTemporary--;
+        }
+    }
+
+    private int jump(int opcode, int target) {
+        emit(opcode, target);
+        return length - 1;
+    }
+
+    private void patch(int jump) {
+        if (jump >= 0) {
+            code[jump] = length;
+        }
+    }
+
+    private void emit(int... instruction) {
+        if (length + instruction.length > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, length + instruction.length));
+        }
+        System.arraycopy(instruction, 0, code, length, instruction.length);
+        length += instruction.length;
+    }
+
+}
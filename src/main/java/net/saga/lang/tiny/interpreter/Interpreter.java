@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.interpreter;
+
+import java.nio.CharBuffer;
+import java.util.function.IntConsumer;
+import java.util.function.IntSupplier;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.parser.FlatTree;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import static net.saga.lang.tiny.interpreter.Program.*;
+
+/**
+ * Runs a {@link Program} without generating any classes, which is cheaper
+ * than compiling for programs that only run once.
+ *
+ * A run reads and writes like the main method {@link
+ * net.saga.lang.tiny.compiler.TinyCompiler} generates: read parses a line
+ * from System.console() and write prints to System.out.
+ *
+ * @author summers
+ */
+public final class Interpreter {
+
+    private static final IntSupplier CONSOLE = () -> Integer.parseInt(System.console().readLine());
+    private static final IntConsumer STANDARD_OUT = value -> System.out.println(value);
+
+    private Interpreter() {
+    }
+
+    /**
+     * Scans, parses, analyzes and assembles a program.
+     */
+    public static Program load(CharSequence source) {
+        FlatTree parseTree = new Parser().parseFlat(new Scanner().scan(CharBuffer.wrap(source)));
+        SymbolTable symbols = Analyizer.analyze(parseTree);
+        return Assembler.assemble(parseTree, symbols);
+    }
+
+    /**
+     * @return the number of loop back edges taken
+     */
+    public static long run(Program program) {
+        return execute(program, new int[program.frameSize], CONSOLE, STANDARD_OUT);
+    }
+
+    /**
+     * @param frame the registers, at least {@link Program#getFrameSize()}
+     * long. Variables start with the values in it and keep their final
+     * values.
+     * @return the number of loop back edges taken, a measure of how hot the
+     * program is
+     */
+    public static long execute(Program program, int[] frame, IntSupplier input, IntConsumer output) {
+        return execute(program, frame, input, output, Long.MAX_VALUE);
+    }
+
+    /**
+     * Runs a program for at most maxBackEdges loop iterations. Code without
+     * back edges runs once, so this bounds the whole run.
+     *
+     * @throws LoopLimitException when one more back edge would be taken
+     * @see #execute(Program, int[], IntSupplier, IntConsumer)
+     */
+    public static long execute(Program program, int[] frame, IntSupplier input, IntConsumer output, long maxBackEdges) {
+        int[] code = program.code;
+        int pc = 0;
+        long backEdges = 0;
+        int target;
+        while (true) {
+            switch (code[pc]) {
+                case CONST:
+                    frame[code[pc + 1]] = code[pc + 2];
+                    pc += 3;
+                    break;
+                case MOVE:
+                    frame[code[pc + 1]] = frame[code[pc + 2]];
+                    pc += 3;
+                    break;
+                case ADD:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] + frame[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case SUB:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] - frame[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case MUL:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] * frame[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case DIV:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] / frame[code[pc + 3]];
+                    pc += 4;
+                    break;
+                case EQ:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] == frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case LT:
+                    frame[code[pc + 1]] = frame[code[pc + 2]] < frame[code[pc + 3]] ? 1 : 0;
+                    pc += 4;
+                    break;
+                case JUMP:
+                    target = code[pc + 1];
+                    if (target <= pc && ++backEdges > maxBackEdges) {
+                        throw new LoopLimitException(maxBackEdges);
+                    }
+                    pc = target;
+                    break;
+                case JUMP_NE:
+                    if (frame[code[pc + 1]] != frame[code[pc + 2]]) {
+                        target = code[pc + 3];
+                        if (target <= pc && ++backEdges > maxBackEdges) {
+                            throw new LoopLimitException(maxBackEdges);
+                        }
+                        pc = target;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case JUMP_GE:
+                    if (frame[code[pc + 1]] >= frame[code[pc + 2]]) {
+                        target = code[pc + 3];
+                        if (target <= pc && ++backEdges > maxBackEdges) {
+                            throw new LoopLimitException(maxBackEdges);
+                        }
+                        pc = target;
+                    } else {
+                        pc += 4;
+                    }
+                    break;
+                case JUMP_ZERO:
+                    if (frame[code[pc + 1]] == 0) {
+                        target = code[pc + 2];
+                        if (target <= pc && ++backEdges > maxBackEdges) {
+                            throw new LoopLimitException(maxBackEdges);
+                        }
+                        pc = target;
+                    } else {
+                        pc += 3;
+                    }
+                    break;
+                case READ:
+                    frame[code[pc + 1]] = input.getAsInt();
+                    pc += 2;
+                    break;
+                case WRITE:
+                    output.accept(frame[code[pc + 1]]);
+                    pc += 2;
+                    break;
+                case HALT:
+                    return backEdges;
+                default:
+                    throw new IllegalStateException("Bad opcode " + code[pc] + " at " + pc);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.interpreter;
+
+/**
+ * Thrown when a program takes more loop back edges than it was allowed.
+ */
+public class LoopLimitException extends RuntimeException {
+
+    private final long limit;
+
+    public LoopLimitException(long limit) {
+        super("loop limit of " + limit + " iterations exceeded");
+        this.limit = limit;
+    }
+
+    public long getLimit() {
+        return limit;
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.interpreter;
+
+/**
+ * A Tiny program compiled for the {@link Interpreter}.
+ *
+ * Code is a flat int array of instructions, each an opcode followed by its
+ * operands. Operands name registers, which are slots of an int frame: the
+ * variables come first, one register per symbol id, then the temporaries of
+ * expressions. Jump targets are indexes into the code.
+ *
+ * @author summers
+ */
+public final class Program {
+
+    /** CONST dst value */
+    public static final int CONST = 0;
+    /** MOVE dst src */
+    public static final int MOVE = 1;
+    /** ADD dst a b */
+    public static final int ADD = 2;
+    /** SUB dst a b */
+    public static final int SUB = 3;
+    /** MUL dst a b */
+    public static final int MUL = 4;
+    /** DIV dst a b */
+    public static final int DIV = 5;
+    /** EQ dst a b, 1 if a == b else 0 */
+    public static final int EQ = 6;
+    /** LT dst a b, 1 if a &lt; b else 0 */
+    public static final int LT = 7;
+    /** JUMP target */
+    public static final int JUMP = 8;
+    /** JUMP_NE a b target */
+    public static final int JUMP_NE = 9;
+    /** JUMP_GE a b target */
+    public static final int JUMP_GE = 10;
+    /** JUMP_ZERO a target */
+    public static final int JUMP_ZERO = 11;
+    /** READ dst */
+    public static final int READ = 12;
+    /** WRITE src */
+    public static final int WRITE = 13;
+    /** HALT */
+    public static final int HALT = 14;
+
+    private static final String[] NAMES = {
+        "CONST", "MOVE", "ADD", "SUB", "MUL", "DIV", "EQ", "LT",
+        "JUMP", "JUMP_NE", "JUMP_GE", "JUMP_ZERO", "READ", "WRITE", "HALT"
+    };
+    private static final int[] OPERANDS = {2, 2, 3, 3, 3, 3, 3, 3, 1, 3, 3, 2, 1, 1, 0};
+
+    final int[] code;
+    final int frameSize;
+    private final int variables;
+
+    Program(int[] code, int variables, int frameSize) {
+        this.code = code;
+        this.variables = variables;
+        this.frameSize = frameSize;
+    }
+
+    /**
+     * @return the number of registers a run needs
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of registers holding variables
+     */
+    public int getVariables() {
+        return variables;
+    }
+
+    public int getCodeLength() {
+        return code.length;
+    }
+
+    /**
+     * @return the size of the instruction with the given opcode, opcode
+     * included
+     */
+    public static int length(int opcode) {
+        return OPERANDS[opcode] + 1;
+    }
+
+    /**
+     * @return one instruction per line, for example "4: ADD r2, r0, r1"
+     */
+    @Override
+    public String toString() {
+        StringBuilder listing = new StringBuilder();
+        for (int pc = 0; pc < code.length; pc += length(code[pc])) {
+            int opcode = code[pc];
+            listing.append(pc).append(": ").append(NAMES[opcode]);
+            for (int i = 1; i <= OPERANDS[opcode]; i++) {
+                listing.append(i == 1 ? " " : ", ");
+                boolean immediate = (opcode == CONST && i == 2) || (i == OPERANDS[opcode] && opcode >= JUMP && opcode <= JUMP_ZERO);
+                listing.append(immediate ? "" : "r").append(code[pc + i]);
+            }
+            listing.append('\n');
+        }
+        return listing.toString();
+    }
+
+}
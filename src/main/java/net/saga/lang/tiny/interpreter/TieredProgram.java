@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.interpreter;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+
+/**
+ * A program loaded by a {@link TieredRunner}. It may be run from any number
+ * of threads.
+ *
+ * @author summers
+ */
+public final class TieredProgram {
+
+    public enum Tier {
+        INTERPRETED,
+        /**
+         * Hot, and being compiled while runs are still interpreted.
+         */
+        COMPILING,
+        COMPILED,
+        /**
+         * The class could not be compiled, so the program stays interpreted.
+         */
+        FAILED
+    }
+
+    private static final MethodType MAIN = MethodType.methodType(void.class, String[].class);
+
+    private final TieredRunner runner;
+    private final String source;
+    private final Program program;
+    private final AtomicLong invocations = new AtomicLong();
+    private final AtomicLong backEdges = new AtomicLong();
+    private final AtomicReference<Tier> tier = new AtomicReference<>(Tier.INTERPRETED);
+    private volatile MethodHandle main;
+
+    TieredProgram(TieredRunner runner, String source, Program program) {
+        this.runner = runner;
+        this.source = source;
+        this.program = program;
+    }
+
+    /**
+     * Runs the program on the fastest tier ready. Both tiers read from
+     * System.console() and write to System.out.
+     */
+    public void run() throws Throwable {
+        MethodHandle compiled = main;
+        if (compiled != null) {
+            invocations.incrementAndGet();
+            compiled.invokeExact(new String[0]);
+            return;
+        }
+        long taken = Interpreter.run(program);
+        long invoked = invocations.incrementAndGet();
+        long edges = backEdges.addAndGet(taken);
+        if (runner.isHot(invoked, edges) && tier.compareAndSet(Tier.INTERPRETED, Tier.COMPILING)) {
+            runner.getCompiler().execute(this::compile);
+        }
+    }
+
+    public Tier getTier() {
+        return tier.get();
+    }
+
+    public long getInvocations() {
+        return invocations.get();
+    }
+
+    /**
+     * @return the loop back edges taken while interpreted
+     */
+    public long getBackEdges() {
+        return backEdges.get();
+    }
+
+    private void compile() {
+        try {
+            Class<?> programClass = new DynamicClassLoader().define(runner.getOptions().compile(source, runner.nextClassName()).jiteClass);
+            main = MethodHandles.publicLookup().findStatic(programClass, "main", MAIN);
+            tier.set(Tier.COMPILED);
+        } catch (RuntimeException | ReflectiveOperationException | LinkageError ex) {
+            tier.set(Tier.FAILED);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.interpreter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+
+/**
+ * Loads programs that start on the {@link Interpreter} and move to a
+ * compiled class once they are hot.
+ *
+ * A program is hot once it has run invocationThreshold times, or its runs
+ * have taken backEdgeThreshold loop back edges between them. It is then
+ * compiled on the compiler executor while it keeps being interpreted, and
+ * every run that starts after the class is ready runs the class. Programs
+ * that run once or twice never pay for class generation.
+ *
+ * @author summers
+ */
+public class TieredRunner {
+
+    public static final int DEFAULT_INVOCATION_THRESHOLD = 100;
+    public static final long DEFAULT_BACK_EDGE_THRESHOLD = 100_000;
+    public static final String CLASS_PREFIX = "tiny/Tiered";
+
+    private static final ExecutorService BACKGROUND = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tiny-tiered-compiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final CompilerOptions options;
+    private final int invocationThreshold;
+    private final long backEdgeThreshold;
+    private final Executor compiler;
+    private final AtomicLong classCount = new AtomicLong();
+
+    public TieredRunner(CompilerOptions options) {
+        this(options, DEFAULT_INVOCATION_THRESHOLD, DEFAULT_BACK_EDGE_THRESHOLD, BACKGROUND);
+    }
+
+    /**
+     * @param compiler runs the compilation of hot programs. Runnable::run
+     * compiles on the thread that made the program hot.
+     */
+    public TieredRunner(CompilerOptions options, int invocationThreshold, long backEdgeThreshold, Executor compiler) {
+        this.options = options;
+        this.invocationThreshold = invocationThreshold;
+        this.backEdgeThreshold = backEdgeThreshold;
+        this.compiler = compiler;
+    }
+
+    /**
+     * Scans, parses, analyzes and assembles a program for the interpreter.
+     */
+    public TieredProgram load(CharSequence source) {
+        String text = source.toString();
+        return new TieredProgram(this, text, Interpreter.load(text));
+    }
+
+    CompilerOptions getOptions() {
+        return options;
+    }
+
+    Executor getCompiler() {
+        return compiler;
+    }
+
+    boolean isHot(long invocations, long backEdges) {
+        return invocations >= invocationThreshold || backEdges >= backEdgeThreshold;
+    }
+
+    String nextClassName() {
+        return CLASS_PREFIX + classCount.incrementAndGet();
+    }
+
+}
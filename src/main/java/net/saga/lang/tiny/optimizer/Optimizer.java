@@ -0,0 +1,202 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.optimizer;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import net.saga.lang.tiny.analyize.TreeWalker;
+import net.saga.lang.tiny.parser.ExpressionKind;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.NodeTree;
+import net.saga.lang.tiny.parser.NodeType;
+import static net.saga.lang.tiny.parser.NodeType.BOOLEAN;
+import static net.saga.lang.tiny.parser.NodeType.INTEGER;
+import net.saga.lang.tiny.scanner.Token;
+import net.saga.lang.tiny.scanner.TokenType;
+
+/**
+ * Rewrites a type checked tree before it is compiled. Operators whose operands
+ * are constants are folded, comparisons of constants become a boolean
+ * constant (1 or 0), and identities such as x * 1, x + 0, x - x and x * 0 are
+ * simplified.
+ *
+ * Folded nodes keep the type the analyzer gave them, so the optimized tree
+ * must not be type checked again: a folded comparison is a BOOLEAN constant.
+ *
+ * The pass is opt-in. The default pipeline compiles the tree as parsed,
+ * and {@link net.saga.lang.tiny.compiler.CompilerOptions#setOptimize(boolean)}
+ * runs this pass between analysis and compiling. It rewrites Nodes, so an
+ * optimized compile converts the parser's FlatTree to Nodes first.
+ *
+ * @author summers
+ */
+public final class Optimizer {
+
+    private Optimizer() {
+    }
+
+    /**
+     * Optimizes every expression in a program or a single expression.
+     *
+     * @param root the first statement of a program, or an expression
+     * @return the root of the optimized tree. This is root unless root is an
+     * expression that was simplified.
+     */
+    public static Node optimize(Node root) {
+        if (root == null) {
+            return null;
+        }
+        NodeTree tree = NodeTree.of(root);
+        TreeWalker.walk(tree, tree.root(), new TreeWalker.Visitor() {
+            @Override
+            public void postVisit(int index) {
+                Node node = tree.node(index);
+                for (int i = 0; i < Node.MAX_CHILDREN; i++) {
+                    Node child = node.getChild(i);
+                    if (child != null && isOperator(child)) {
+                        node.replaceChild(i, simplify(child));
+                    }
+                }
+            }
+        });
+        return isOperator(root) ? simplify(root) : root;
+    }
+
+    /**
+     * Children are simplified before their parent, so only this operator and
+     * its two operands have to be looked at.
+     */
+    private static Node simplify(Node operator) {
+        Node left = operator.getChild(0);
+        Node right = operator.getChild(1);
+        TokenType operation = operator.getOperationAttribute();
+
+        if (isConstant(left) && isConstant(right)) {
+            return fold(operator, left.getValue(), right.getValue());
+        }
+
+        switch (operation) {
+            case ADDITION:
+                if (isConstant(left, 0)) {
+                    return right;
+                }
+                if (isConstant(right, 0)) {
+                    return left;
+                }
+                break;
+            case SUBTRACTION:
+                if (isConstant(right, 0)) {
+                    return left;
+                }
+                if (isSameVariable(left, right)) {
+                    return constant(operator, 0, INTEGER);
+                }
+                break;
+            case MULTIPLICATION:
+                if (isConstant(left, 1)) {
+                    return right;
+                }
+                if (isConstant(right, 1)) {
+                    return left;
+                }
+                if ((isConstant(left, 0) && cannotThrow(right))
+                        || (isConstant(right, 0) && cannotThrow(left))) {
+                    return constant(operator, 0, INTEGER);
+                }
+                break;
+            case INT_DIVISION:
+                if (isConstant(right, 1)) {
+                    return left;
+                }
+                break;
+            default:
+                break;
+        }
+        return operator;
+    }
+
+    /**
+     * Division by a constant zero is left for the program to fail on at run
+     * time.
+     */
+    private static Node fold(Node operator, int left, int right) {
+        switch (operator.getOperationAttribute()) {
+            case ADDITION:
+                return constant(operator, left + right, INTEGER);
+            case SUBTRACTION:
+                return constant(operator, left - right, INTEGER);
+            case MULTIPLICATION:
+                return constant(operator, left * right, INTEGER);
+            case INT_DIVISION:
+                if (right == 0) {
+                    return operator;
+                }
+                return constant(operator, left / right, INTEGER);
+            case EQ:
+                return constant(operator, left == right ? 1 : 0, BOOLEAN);
+            case LT:
+                return constant(operator, left < right ? 1 : 0, BOOLEAN);
+            default:
+                return operator;
+        }
+    }
+
+    private static Node constant(Node operator, int value, NodeType type) {
+        Node constant = new Node(ExpressionKind.ConstantExpression, Token.newInstance(value, operator.getLineNumber()));
+        constant.setNodeType(type);
+        return constant;
+    }
+
+    private static boolean isOperator(Node node) {
+        return node.getExpressionKind() == ExpressionKind.OperatorExpression;
+    }
+
+    private static boolean isConstant(Node node) {
+        return node.getExpressionKind() == ExpressionKind.ConstantExpression;
+    }
+
+    private static boolean isConstant(Node node, int value) {
+        return isConstant(node) && node.getValue() == value;
+    }
+
+    private static boolean isSameVariable(Node left, Node right) {
+        return left.getExpressionKind() == ExpressionKind.IdentifierExpression
+                && right.getExpressionKind() == ExpressionKind.IdentifierExpression
+                && left.getName().equals(right.getName());
+    }
+
+    /**
+     * Only a division can fail, so an expression without one can be dropped.
+     */
+    private static boolean cannotThrow(Node expression) {
+        Deque<Node> pending = new ArrayDeque<>();
+        pending.push(expression);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            if (node.getOperationAttribute() == TokenType.INT_DIVISION) {
+                return false;
+            }
+            for (int i = 0; i < Node.MAX_CHILDREN; i++) {
+                if (node.getChild(i) != null) {
+                    pending.push(node.getChild(i));
+                }
+            }
+        }
+        return true;
+    }
+
+}
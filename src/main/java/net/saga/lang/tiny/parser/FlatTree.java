@@ -0,0 +1,307 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.parser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import net.saga.lang.tiny.scanner.Token;
+import net.saga.lang.tiny.scanner.TokenType;
+
+/**
+ * A parse tree stored in parallel primitive arrays.
+ *
+ * Every node is an index. Its kind, operator, type, value, line, name and the
+ * indexes of its children and next sibling live in arrays, and names are kept
+ * once in a side table. A node costs a few dozen bytes instead of a Node, its
+ * children list and their headers, and nodes that are next to each other in
+ * the program are next to each other in memory.
+ *
+ * The {@link Parser} writes straight into a FlatTree, and the analyzer and the
+ * compiler walk it by index through {@link SyntaxTree}.
+ */
+public class FlatTree implements SyntaxTree {
+
+    private static final StatementKind[] STATEMENT_KINDS = StatementKind.values();
+    private static final ExpressionKind[] EXPRESSION_KINDS = ExpressionKind.values();
+    private static final TokenType[] OPERATIONS = TokenType.values();
+    private static final NodeType[] NODE_TYPES = NodeType.values();
+
+    /**
+     * Statement kinds are stored as their ordinal, expression kinds after
+     * them.
+     */
+    private byte[] kinds;
+    private byte[] operations;
+    private byte[] types;
+    private int[] values;
+    private int[] lines;
+    private int[] names;
+    private int[] symbols;
+    private int[][] children;
+    private int[] next;
+    private int size = 0;
+    private int root = NONE;
+
+    private String[] nameTable = new String[16];
+    private int nameCount = 0;
+    private final HashMap<String, Integer> nameIndexes = new HashMap<>();
+
+    public FlatTree() {
+        this(64);
+    }
+
+    public FlatTree(int capacity) {
+        capacity = Math.max(capacity, 1);
+        kinds = new byte[capacity];
+        operations = new byte[capacity];
+        types = new byte[capacity];
+        values = new int[capacity];
+        lines = new int[capacity];
+        names = new int[capacity];
+        symbols = new int[capacity];
+        children = new int[Node.MAX_CHILDREN][capacity];
+        next = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int root() {
+        return root;
+    }
+
+    void setRoot(int root) {
+        this.root = root;
+    }
+
+    /**
+     * Adds a statement without children or siblings.
+     *
+     * @return the index of the new node
+     */
+    int add(StatementKind kind, Token token) {
+        return add(kind.ordinal(), token);
+    }
+
+    /**
+     * Adds an expression without children.
+     *
+     * @return the index of the new node
+     */
+    int add(ExpressionKind kind, Token token) {
+        return add(STATEMENT_KINDS.length + kind.ordinal(), token);
+    }
+
+    void setChild(int index, int child, int node) {
+        checkIndex(index);
+        children[child][index] = node;
+    }
+
+    void setNext(int index, int node) {
+        checkIndex(index);
+        next[index] = node;
+    }
+
+    @Override
+    public NodeKind getNodeKind(int index) {
+        checkIndex(index);
+        return kinds[index] < STATEMENT_KINDS.length ? NodeKind.StatementNode : NodeKind.ExpressionNode;
+    }
+
+    @Override
+    public StatementKind getStatementKind(int index) {
+        checkIndex(index);
+        return kinds[index] < STATEMENT_KINDS.length ? STATEMENT_KINDS[kinds[index]] : null;
+    }
+
+    @Override
+    public ExpressionKind getExpressionKind(int index) {
+        checkIndex(index);
+        return kinds[index] < STATEMENT_KINDS.length ? null : EXPRESSION_KINDS[kinds[index] - STATEMENT_KINDS.length];
+    }
+
+    @Override
+    public TokenType getOperationAttribute(int index) {
+        checkIndex(index);
+        return OPERATIONS[operations[index]];
+    }
+
+    @Override
+    public NodeType getNodeType(int index) {
+        checkIndex(index);
+        return NODE_TYPES[types[index]];
+    }
+
+    @Override
+    public void setNodeType(int index, NodeType nodeType) {
+        checkIndex(index);
+        types[index] = (byte) nodeType.ordinal();
+    }
+
+    @Override
+    public int getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    @Override
+    public int getLineNumber(int index) {
+        checkIndex(index);
+        return lines[index];
+    }
+
+    @Override
+    public String getName(int index) {
+        checkIndex(index);
+        return nameTable[names[index]];
+    }
+
+    @Override
+    public int getSymbol(int index) {
+        checkIndex(index);
+        return symbols[index];
+    }
+
+    @Override
+    public void setSymbol(int index, int symbol) {
+        checkIndex(index);
+        symbols[index] = symbol;
+    }
+
+    @Override
+    public int getChild(int index, int child) {
+        checkIndex(index);
+        if (child < 0 || child >= Node.MAX_CHILDREN) {
+            return NONE;
+        }
+        return children[child][index];
+    }
+
+    @Override
+    public int getNext(int index) {
+        checkIndex(index);
+        return next[index];
+    }
+
+    @Override
+    public String describe(int index) {
+        checkIndex(index);
+        NodeKind kind = getNodeKind(index);
+        return lines[index] + ":{" + (kind == NodeKind.StatementNode ? getStatementKind(index) : getExpressionKind(index)) + "}";
+    }
+
+    /**
+     * Builds a tree of Nodes with the same content as this tree.
+     *
+     * @return the first node of the program, or null if the tree is empty
+     */
+    public Node toNode() {
+        if (root == NONE) {
+            return null;
+        }
+        Node[] nodes = new Node[size];
+        for (int index = 0; index < size; index++) {
+            nodes[index] = newNode(index);
+        }
+        for (int index = 0; index < size; index++) {
+            for (int child = 0; child < Node.MAX_CHILDREN; child++) {
+                if (children[child][index] != NONE) {
+                    nodes[index].setChild(child, nodes[children[child][index]]);
+                }
+            }
+            if (next[index] != NONE) {
+                nodes[index].setNext(nodes[next[index]]);
+            }
+        }
+        return nodes[root];
+    }
+
+    private Node newNode(int index) {
+        TokenType operation = OPERATIONS[operations[index]];
+        Token token;
+        switch (operation) {
+            case IDENTIFIER:
+                token = Token.newInstance(nameTable[names[index]], lines[index]);
+                break;
+            case NUMBER:
+                token = Token.newInstance(values[index], lines[index]);
+                break;
+            default:
+                token = Token.newInstance(operation, lines[index]);
+        }
+        Node node;
+        if (kinds[index] < STATEMENT_KINDS.length) {
+            node = new Node(STATEMENT_KINDS[kinds[index]], token);
+        } else {
+            node = new Node(EXPRESSION_KINDS[kinds[index] - STATEMENT_KINDS.length], token);
+        }
+        node.setNodeType(NODE_TYPES[types[index]]);
+        node.setSymbol(symbols[index]);
+        return node;
+    }
+
+    private int add(int kind, Token token) {
+        if (size == kinds.length) {
+            int capacity = kinds.length * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            operations = Arrays.copyOf(operations, capacity);
+            types = Arrays.copyOf(types, capacity);
+            values = Arrays.copyOf(values, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            names = Arrays.copyOf(names, capacity);
+            symbols = Arrays.copyOf(symbols, capacity);
+            for (int child = 0; child < Node.MAX_CHILDREN; child++) {
+                children[child] = Arrays.copyOf(children[child], capacity);
+            }
+            next = Arrays.copyOf(next, capacity);
+        }
+        int index = size++;
+        kinds[index] = (byte) kind;
+        operations[index] = (byte) token.getType().ordinal();
+        types[index] = (byte) NodeType.VOID.ordinal();
+        values[index] = token.getValue();
+        lines[index] = token.getLineNumber();
+        names[index] = nameIndex(token.getName());
+        symbols[index] = Node.NO_SYMBOL;
+        for (int child = 0; child < Node.MAX_CHILDREN; child++) {
+            children[child][index] = NONE;
+        }
+        next[index] = NONE;
+        return index;
+    }
+
+    private int nameIndex(String name) {
+        Integer index = nameIndexes.get(name);
+        if (index == null) {
+            if (nameCount == nameTable.length) {
+                nameTable = Arrays.copyOf(nameTable, nameCount * 2);
+            }
+            index = nameCount;
+            nameTable[nameCount++] = name;
+            nameIndexes.put(name, index);
+        }
+        return index;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+}
@@ -24,11 +24,13 @@ import net.saga.lang.tiny.scanner.TokenType;
 
 public class Node {
     public static final int MAX_CHILDREN = 3;
+    public static final int NO_SYMBOL = -1;
     
     private final ExpressionKind expressionKind;
     private final StatementKind statementKind;
     private final NodeKind nodeKind;
     private NodeType nodeType = VOID;
+    private int symbol = NO_SYMBOL;
     private final TokenType operationAttribute;
     private final int lineNumber;
     private final int value;
@@ -88,6 +90,14 @@ public class Node {
         children.add(index, childNode);
     }
 
+    /**
+     * Swaps an existing child for another node, for passes that rewrite the
+     * tree after parsing.
+     */
+    public void replaceChild(int index, Node childNode) {
+        children.set(index, childNode);
+    }
+
     public StatementKind getStatementKind() {
         return statementKind;
     }
@@ -162,6 +172,14 @@ public class Node {
     public void setNodeType(NodeType nodeType) {
         this.nodeType = nodeType;
     }
+
+    public int getSymbol() {
+        return symbol;
+    }
+
+    public void setSymbol(int symbol) {
+        this.symbol = symbol;
+    }
     
     
     
@@ -0,0 +1,186 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.parser;
+
+import java.util.Arrays;
+import net.saga.lang.tiny.scanner.TokenType;
+
+/**
+ * Numbers the nodes of a tree of {@link Node}s so it can be walked as a
+ * {@link SyntaxTree}. Only the links are copied: reads and writes go to the
+ * Nodes themselves, so types and symbols set through the tree are seen by
+ * code holding the Nodes.
+ */
+public final class NodeTree implements SyntaxTree {
+
+    private Node[] nodes;
+    private int[][] children;
+    private int[] next;
+    private int size = 0;
+
+    private NodeTree(int capacity) {
+        nodes = new Node[capacity];
+        children = new int[Node.MAX_CHILDREN][capacity];
+        next = new int[capacity];
+    }
+
+    /**
+     * Numbers a tree without recursion, so the length of the statement
+     * sequence does not matter.
+     *
+     * @param root the first node, or null
+     * @return the tree, with root at index 0
+     */
+    public static NodeTree of(Node root) {
+        NodeTree tree = new NodeTree(16);
+        if (root == null) {
+            return tree;
+        }
+
+        int[] pending = new int[16];
+        int top = 0;
+        pending[top++] = tree.add(root);
+        while (top > 0) {
+            int index = pending[--top];
+            Node node = tree.nodes[index];
+            if (top + Node.MAX_CHILDREN + 1 > pending.length) {
+                pending = Arrays.copyOf(pending, pending.length * 2);
+            }
+            //add may grow the arrays, so it runs before they are read.
+            if (node.getNext() != null) {
+                int next = tree.add(node.getNext());
+                tree.next[index] = next;
+                pending[top++] = next;
+            }
+            for (int i = 0; i < Node.MAX_CHILDREN; i++) {
+                if (node.getChild(i) != null) {
+                    int child = tree.add(node.getChild(i));
+                    tree.children[i][index] = child;
+                    pending[top++] = child;
+                }
+            }
+        }
+        return tree;
+    }
+
+    /**
+     * @return the Node at an index, or null for NONE
+     */
+    public Node node(int index) {
+        return index == NONE ? null : nodes[index];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public int root() {
+        return size == 0 ? NONE : 0;
+    }
+
+    @Override
+    public NodeKind getNodeKind(int node) {
+        return nodes[node].getNodeKind();
+    }
+
+    @Override
+    public StatementKind getStatementKind(int node) {
+        return nodes[node].getStatementKind();
+    }
+
+    @Override
+    public ExpressionKind getExpressionKind(int node) {
+        return nodes[node].getExpressionKind();
+    }
+
+    @Override
+    public TokenType getOperationAttribute(int node) {
+        return nodes[node].getOperationAttribute();
+    }
+
+    @Override
+    public int getLineNumber(int node) {
+        return nodes[node].getLineNumber();
+    }
+
+    @Override
+    public int getValue(int node) {
+        return nodes[node].getValue();
+    }
+
+    @Override
+    public String getName(int node) {
+        return nodes[node].getName();
+    }
+
+    @Override
+    public int getChild(int node, int child) {
+        if (child < 0 || child >= Node.MAX_CHILDREN) {
+            return NONE;
+        }
+        return children[child][node];
+    }
+
+    @Override
+    public int getNext(int node) {
+        return next[node];
+    }
+
+    @Override
+    public NodeType getNodeType(int node) {
+        return nodes[node].getNodeType();
+    }
+
+    @Override
+    public void setNodeType(int node, NodeType nodeType) {
+        nodes[node].setNodeType(nodeType);
+    }
+
+    @Override
+    public int getSymbol(int node) {
+        return nodes[node].getSymbol();
+    }
+
+    @Override
+    public void setSymbol(int node, int symbol) {
+        nodes[node].setSymbol(symbol);
+    }
+
+    @Override
+    public String describe(int node) {
+        return nodes[node].toString();
+    }
+
+    private int add(Node node) {
+        if (size == nodes.length) {
+            int capacity = size * 2;
+            nodes = Arrays.copyOf(nodes, capacity);
+            for (int child = 0; child < Node.MAX_CHILDREN; child++) {
+                children[child] = Arrays.copyOf(children[child], capacity);
+            }
+            next = Arrays.copyOf(next, capacity);
+        }
+        int index = size++;
+        nodes[index] = node;
+        for (int child = 0; child < Node.MAX_CHILDREN; child++) {
+            children[child][index] = NONE;
+        }
+        next[index] = NONE;
+        return index;
+    }
+
+}
@@ -15,8 +15,9 @@
  */
 package net.saga.lang.tiny.parser;
 
+import java.nio.CharBuffer;
 import java.util.Iterator;
-import java.util.List;
+import net.saga.lang.tiny.scanner.Scanner;
 import net.saga.lang.tiny.scanner.Token;
 import net.saga.lang.tiny.scanner.TokenType;
 import static net.saga.lang.tiny.scanner.TokenType.ADDITION;
@@ -33,40 +34,74 @@ public class Parser {
     
     private Iterator<Token> tokensIter;
     private Token token;
+    private FlatTree tree;
     
-    public void setTokens(List<Token> tokens) {
+    public void setTokens(Iterable<Token> tokens) {
         
         tokensIter = tokens.iterator();
     }
 
     public Token nextToken() {
-        if (tokensIter.hasNext()) {
+        while (tokensIter.hasNext()) {
             token = tokensIter.next();
-            while (token.getType() == TokenType.COMMENT) {
-                token = tokensIter.next();
+            if (token.getType() != TokenType.COMMENT) {
+                return token;
             }
-            return token;
-        } else {
-            return token = null;
         }
+        return token = null;
+    }
+
+    public Node parseProgram(Iterable<Token> tokens) {
+        return parseFlat(tokens).toNode();
+    }
+
+    /**
+     * Parses a program while the scanner reads it. Tokens are pulled from the
+     * scanner one at a time as the parser needs them.
+     *
+     * @param scanner the scanner to pull tokens from
+     * @param buffer the program source
+     * @return the root of the parse tree
+     */
+    public Node parseProgram(Scanner scanner, CharBuffer buffer) {
+        return parseProgram(scanner.tokens(buffer));
     }
 
-    public Node parseProgram(List<Token> tokens) {
+    /**
+     * Parses a program into a {@link FlatTree}. No Node is created.
+     *
+     * @param tokens the program's tokens
+     * @return the parse tree
+     */
+    public FlatTree parseFlat(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
-        return parse();
+        tree = new FlatTree();
+        tree.setRoot(statementSequence());
+        return tree;
+    }
+
+    /**
+     * Parses a program into a {@link FlatTree} while the scanner reads it.
+     */
+    public FlatTree parseFlat(Scanner scanner, CharBuffer buffer) {
+        return parseFlat(scanner.tokens(buffer));
     }
 
-    public Node parseStatement(List<Token> tokens) {
+    public Node parseStatement(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
-        return statementSequence();
+        tree = new FlatTree();
+        tree.setRoot(statementSequence());
+        return tree.toNode();
     }
     
-    public Node parseExpression(List<Token> tokens) {
+    public Node parseExpression(Iterable<Token> tokens) {
         tokensIter = tokens.iterator();
         nextToken();
-        return expression();
+        tree = new FlatTree();
+        tree.setRoot(expression());
+        return tree.toNode();
     }
     
     
@@ -75,7 +110,9 @@ public class Parser {
      * @return 
      */
     public Node parse() {
-        return statementSequence();
+        tree = new FlatTree();
+        tree.setRoot(statementSequence());
+        return tree.toNode();
     }
 
     public void match(TokenType expectedType) {
@@ -86,20 +123,21 @@ public class Parser {
         }
     }
 
-    private Node statementSequence() {
-        Node firstNode = statement();
+    private int statementSequence() {
+        int firstNode = statement();
         if (token == null) {
             return firstNode;
         }
         
-        Node node = firstNode;
+        int node = firstNode;
         
         while (token != null && (token.getType() != TokenType.ELSE) && token.getType() != TokenType.UNTIL && token.getType() != TokenType.END){
             
             match(SEMICOLON);
             if (token != null) {
-                node.setNext(statement());
-                node = node.getNext();
+                int next = statement();
+                tree.setNext(node, next);
+                node = next;
             }
         } 
         
@@ -107,11 +145,11 @@ public class Parser {
         
     }
     
-    private Node factor() {
-        Node factorNode;
+    private int factor() {
+        int factorNode;
         switch(token.getType()) {
             case NUMBER:
-                factorNode = new Node(ExpressionKind.ConstantExpression, token);
+                factorNode = tree.add(ExpressionKind.ConstantExpression, token);
                 nextToken();
                 break;
             case START_PAREN:
@@ -120,7 +158,7 @@ public class Parser {
                 match(END_PAREN);
                 break;
             case IDENTIFIER:
-                factorNode = new Node(ExpressionKind.IdentifierExpression, token);
+                factorNode = tree.add(ExpressionKind.IdentifierExpression, token);
                 nextToken();
                 break;
             default:
@@ -129,19 +167,18 @@ public class Parser {
         return factorNode;
     }
 
-    private Node expression() {
-        Node firstExpression = simpleExpression();
+    private int expression() {
+        int firstExpression = simpleExpression();
         
         if (token == null) {
             return firstExpression;
         }
-        Node parentNode = firstExpression;
         if (token.getType() == LT || token.getType() == EQ) {
-            parentNode = new Node(ExpressionKind.OperatorExpression, token);
-            parentNode.setChild(0, firstExpression);
+            int parentNode = tree.add(ExpressionKind.OperatorExpression, token);
+            tree.setChild(parentNode, 0, firstExpression);
             firstExpression = parentNode;
             match(token.getType());
-            firstExpression.setChild(1, simpleExpression());
+            tree.setChild(firstExpression, 1, simpleExpression());
         }
         
         
@@ -150,37 +187,36 @@ public class Parser {
         
     }
     
-    private Node simpleExpression() {
-        Node firstTerm = term();
+    private int simpleExpression() {
+        int firstTerm = term();
         if (token == null) {
             return firstTerm;
         }
-        Node parentNode = firstTerm;
+        int parentNode = firstTerm;
         
         while (token != null && (token.getType() == ADDITION || token.getType() == SUBTRACTION)) {
             Token addToken = token;
                     match(token.getType());
-                    parentNode = new Node(ExpressionKind.OperatorExpression, addToken);
-                    parentNode.setChild(0, firstTerm);
-                    parentNode.setChild(1, term());
+                    parentNode = tree.add(ExpressionKind.OperatorExpression, addToken);
+                    tree.setChild(parentNode, 0, firstTerm);
+                    tree.setChild(parentNode, 1, term());
                     firstTerm = parentNode;
         }
         
         return parentNode;
     }
 
-    private Node term() {
-        Node firstFactor = factor();
+    private int term() {
+        int firstFactor = factor();
         if (token == null) {
             return firstFactor;
         } else {
-            Node parentNode = null;
             while (token != null && (token.getType() == MULTIPLICATION || token.getType() == TokenType.INT_DIVISION)) {
                     Token opToken = token;
-                    parentNode = new Node(ExpressionKind.OperatorExpression, opToken);
-                    parentNode.setChild(0, firstFactor);
+                    int parentNode = tree.add(ExpressionKind.OperatorExpression, opToken);
+                    tree.setChild(parentNode, 0, firstFactor);
                     match(token.getType());
-                    parentNode.setChild(1, factor());
+                    tree.setChild(parentNode, 1, factor());
                     firstFactor = parentNode;
                     
             }
@@ -189,19 +225,19 @@ public class Parser {
         }
     }
 
-    private Node statement() {
+    private int statement() {
         
         switch (token.getType()) {
             case IDENTIFIER:
-                Node assignmentNode = new Node(StatementKind.ASSIGN, token);
+                int assignmentNode = tree.add(StatementKind.ASSIGN, token);
                 match(TokenType.IDENTIFIER);
                 match(TokenType.ASSIGNMENT);
-                assignmentNode.setChild(0, expression());
+                tree.setChild(assignmentNode, 0, expression());
                 return assignmentNode;
             case WRITE:
-                Node writeNode = new Node(StatementKind.WRITE, token);
+                int writeNode = tree.add(StatementKind.WRITE, token);
                 match(TokenType.WRITE);
-                writeNode.setChild(0, expression());
+                tree.setChild(writeNode, 0, expression());
                 return writeNode;
             
             case READ:
@@ -209,25 +245,25 @@ public class Parser {
                 match(TokenType.READ);
                 Token readName  = token;
                 match(TokenType.IDENTIFIER);
-                Node readNode = new Node(StatementKind.READ, readName);
+                int readNode = tree.add(StatementKind.READ, readName);
                 return readNode;
             case REPEAT:
-                Node repeatNode = new Node(StatementKind.REPEAT, token);
+                int repeatNode = tree.add(StatementKind.REPEAT, token);
                 match(TokenType.REPEAT);
-                repeatNode.setChild(0, statementSequence());
+                tree.setChild(repeatNode, 0, statementSequence());
                 match(TokenType.UNTIL);
-                repeatNode.setChild(1, expression());
+                tree.setChild(repeatNode, 1, expression());
                 return repeatNode;                
             case IF:
-                Node ifNode = new Node(StatementKind.IF, token);
+                int ifNode = tree.add(StatementKind.IF, token);
                 match(TokenType.IF);
-                ifNode.setChild(0, expression());
+                tree.setChild(ifNode, 0, expression());
                 match(TokenType.THEN);
-                ifNode.setChild(1, statementSequence());
+                tree.setChild(ifNode, 1, statementSequence());
                 switch(token.getType()){
                     case ELSE:
                         match(TokenType.ELSE);
-                        ifNode.setChild(2, statementSequence());
+                        tree.setChild(ifNode, 2, statementSequence());
                         match(TokenType.END);
                         break;
                     case END:
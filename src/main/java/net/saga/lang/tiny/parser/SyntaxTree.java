@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.parser;
+
+import net.saga.lang.tiny.scanner.TokenType;
+
+/**
+ * A parse tree whose nodes are int indexes. {@link FlatTree} is the tree the
+ * parser builds, {@link NodeTree} numbers a tree of {@link Node}s. The
+ * analyzer and the compilers walk either one through these methods without
+ * allocating an object per node.
+ */
+public interface SyntaxTree {
+
+    /**
+     * The index of a missing child or sibling.
+     */
+    int NONE = -1;
+
+    /**
+     * @return the first node of the program, or NONE if the tree is empty
+     */
+    int root();
+
+    NodeKind getNodeKind(int node);
+
+    StatementKind getStatementKind(int node);
+
+    ExpressionKind getExpressionKind(int node);
+
+    TokenType getOperationAttribute(int node);
+
+    int getLineNumber(int node);
+
+    int getValue(int node);
+
+    String getName(int node);
+
+    /**
+     * @return the index of the child or NONE
+     */
+    int getChild(int node, int child);
+
+    /**
+     * @return the index of the next sibling or NONE
+     */
+    int getNext(int node);
+
+    NodeType getNodeType(int node);
+
+    void setNodeType(int node, NodeType nodeType);
+
+    /**
+     * @return the dense id the analyzer gave this node's variable, or
+     * {@link Node#NO_SYMBOL}
+     */
+    int getSymbol(int node);
+
+    void setSymbol(int node, int symbol);
+
+    /**
+     * @return a short description of a node for error messages
+     */
+    String describe(int node);
+
+}
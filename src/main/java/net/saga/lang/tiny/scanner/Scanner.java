@@ -17,11 +17,14 @@ package net.saga.lang.tiny.scanner;
 
 import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 
 public class Scanner {
 
     private int lineNumber = 1;
+    private final TokenPool pool = new TokenPool();
 
     /**
      * Given the a input buffer, find the next token.
@@ -61,11 +64,11 @@ public class Scanner {
             case SEMICOLON:
             case COMMENT:
             case ASSIGNMENT:
-                return Token.newInstance(type, lineNumber);
+                return pool.token(type, lineNumber);
             case NUMBER:
-                return Token.newInstance(Integer.parseInt(token), lineNumber);
+                return pool.number(Integer.parseInt(token), lineNumber);
             case IDENTIFIER:
-                return Token.newInstance(token, lineNumber);
+                return pool.identifier(token, lineNumber);
             default:
                 throw new AssertionError(type.name());
 
@@ -83,6 +86,58 @@ public class Scanner {
         return tokens;
     }
 
+    /**
+     * Returns the tokens of the buffer without scanning ahead. A token is only
+     * scanned when the iterator is asked for it, so a parser reading from the
+     * result drives the scanner itself and the full token list never exists.
+     *
+     * The result shares this scanner and the buffer, so it can only be
+     * iterated once.
+     *
+     * @param buffer a charbuffer
+     * @return the tokens in the buffer, scanned on demand
+     */
+    public Iterable<Token> tokens(CharBuffer buffer) {
+        return () -> new Iterator<Token>() {
+            private Token next;
+            private boolean scanned = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!scanned) {
+                    next = nextToken(buffer);
+                    scanned = true;
+                }
+                return next != null;
+            }
+
+            @Override
+            public Token next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                scanned = false;
+                return next;
+            }
+        };
+    }
+
+    /**
+     * Scans the whole buffer into a packed {@link TokenStream}.
+     *
+     * @param buffer a charbuffer
+     * @return the tokens in the buffer
+     */
+    public TokenStream scanPacked(CharBuffer buffer) {
+        TokenStream tokens = new TokenStream(100);
+        Token token = nextToken(buffer);
+        while (token != null) {
+            tokens.add(token);
+            token = nextToken(buffer);
+        }
+        return tokens;
+    }
+
     private String getNextTokenString(CharBuffer buffer) {
         StringBuilder tokenBuilder = new StringBuilder(40);
         if (!buffer.hasRemaining()) {
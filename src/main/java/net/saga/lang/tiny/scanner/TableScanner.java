@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.scanner;
+
+import java.nio.CharBuffer;
+
+/**
+ * A scanner which classifies characters with a lookup table and recognizes
+ * tokens directly from the buffer.
+ *
+ * Numbers are accumulated arithmetically, keywords are matched in place and
+ * identifier names are interned straight from the buffer, so no intermediate
+ * Strings are built. Every run of
+ * characters is consumed by a loop instead of recursion so very long
+ * identifiers, numbers, comments or whitespace can not overflow the stack.
+ *
+ * The tokens produced are the same as those produced by {@link Scanner}.
+ */
+public class TableScanner extends Scanner {
+
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte DIGIT = 2;
+    private static final byte WHITESPACE = 3;
+    private static final byte NEWLINE = 4;
+    private static final byte SYMBOL = 5;
+    private static final byte COLON = 6;
+    private static final byte COMMENT_START = 7;
+
+    private static final byte[] CHARACTER_CLASS = new byte[128];
+    private static final TokenType[] SYMBOLS = new TokenType[128];
+    private static final char[][][] KEYWORDS_BY_LENGTH;
+    private static final TokenType[][] KEYWORD_TYPES_BY_LENGTH;
+
+    static {
+        for (char c = 0; c < 128; c++) {
+            if ((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z')) {
+                CHARACTER_CLASS[c] = LETTER;
+            } else if (c >= '0' && c <= '9') {
+                CHARACTER_CLASS[c] = DIGIT;
+            } else if (c == '\n') {
+                CHARACTER_CLASS[c] = NEWLINE;
+            } else if (Character.isWhitespace(c)) {
+                CHARACTER_CLASS[c] = WHITESPACE;
+            }
+        }
+        CHARACTER_CLASS[':'] = COLON;
+        CHARACTER_CLASS['{'] = COMMENT_START;
+
+        int longest = 0;
+        for (TokenType type : TokenType.values()) {
+            String token = type.token();
+            if (token.length() == 1) {
+                CHARACTER_CLASS[token.charAt(0)] = SYMBOL;
+                SYMBOLS[token.charAt(0)] = type;
+            } else if (isWord(token)) {
+                longest = Math.max(longest, token.length());
+            }
+        }
+
+        KEYWORDS_BY_LENGTH = new char[longest + 1][][];
+        KEYWORD_TYPES_BY_LENGTH = new TokenType[longest + 1][];
+        for (int length = 0; length <= longest; length++) {
+            int count = 0;
+            for (TokenType type : TokenType.values()) {
+                if (type.token().length() == length && isWord(type.token())) {
+                    count++;
+                }
+            }
+            KEYWORDS_BY_LENGTH[length] = new char[count][];
+            KEYWORD_TYPES_BY_LENGTH[length] = new TokenType[count];
+            int index = 0;
+            for (TokenType type : TokenType.values()) {
+                if (type.token().length() == length && isWord(type.token())) {
+                    KEYWORDS_BY_LENGTH[length][index] = type.token().toLowerCase().toCharArray();
+                    KEYWORD_TYPES_BY_LENGTH[length][index] = type;
+                    index++;
+                }
+            }
+        }
+    }
+
+    private int lineNumber = 1;
+    private final TokenPool pool = new TokenPool();
+
+    @Override
+    public Token nextToken(CharBuffer buffer) {
+        int position = buffer.position();
+        final int limit = buffer.limit();
+
+        while (position < limit) {
+            char character = buffer.get(position);
+            switch (classOf(character)) {
+                case NEWLINE:
+                    lineNumber++;
+                    position++;
+                    break;
+                case WHITESPACE:
+                    position++;
+                    break;
+                case SYMBOL:
+                    buffer.position(position + 1);
+                    return pool.token(SYMBOLS[character], lineNumber);
+                case COLON:
+                    if (position + 1 >= limit || buffer.get(position + 1) != '=') {
+                        throw new UnknownTokenException("No such type " + buffer.subSequence(position - buffer.position(), Math.min(limit, position + 2) - buffer.position()));
+                    }
+                    buffer.position(position + 2);
+                    return pool.token(TokenType.ASSIGNMENT, lineNumber);
+                case COMMENT_START:
+                    return comment(buffer, position + 1, limit);
+                case DIGIT:
+                    return number(buffer, position, limit);
+                case LETTER:
+                    return word(buffer, position, limit);
+                default:
+                    throw new UnknownTokenException("No such type " + character);
+            }
+        }
+
+        buffer.position(position);
+        return null;
+    }
+
+    private Token comment(CharBuffer buffer, int position, int limit) {
+        while (position < limit) {
+            char character = buffer.get(position++);
+            if (character == '}') {
+                buffer.position(position);
+                return pool.token(TokenType.COMMENT, lineNumber);
+            } else if (character == '{') {
+                throw new IllegalStateException("Nested comments");
+            } else if (character == '\n') {
+                lineNumber++;
+            }
+        }
+        throw new IllegalStateException("Unexpected end of file");
+    }
+
+    private Token number(CharBuffer buffer, int start, int limit) {
+        int position = start;
+        int value = 0;
+        while (position < limit && classOf(buffer.get(position)) == DIGIT) {
+            int digit = buffer.get(position) - '0';
+            if (value > (Integer.MAX_VALUE - digit) / 10) {
+                int end = position;
+                while (end < limit && classOf(buffer.get(end)) == DIGIT) {
+                    end++;
+                }
+                int offset = buffer.position();
+                throw new NumberFormatException("For input string: \"" + buffer.subSequence(start - offset, end - offset) + "\"");
+            }
+            value = value * 10 + digit;
+            position++;
+        }
+        buffer.position(position);
+        return pool.number(value, lineNumber);
+    }
+
+    private Token word(CharBuffer buffer, int start, int limit) {
+        int position = start;
+        while (position < limit && classOf(buffer.get(position)) == LETTER) {
+            position++;
+        }
+        int length = position - start;
+
+        if (length < KEYWORDS_BY_LENGTH.length) {
+            char[][] keywords = KEYWORDS_BY_LENGTH[length];
+            for (int keyword = 0; keyword < keywords.length; keyword++) {
+                if (matchesIgnoreCase(buffer, start, keywords[keyword])) {
+                    buffer.position(position);
+                    return pool.token(KEYWORD_TYPES_BY_LENGTH[length][keyword], lineNumber);
+                }
+            }
+        }
+
+        buffer.position(position);
+        return Token.newInstance(pool.intern(buffer, start, position), lineNumber);
+    }
+
+    private static boolean matchesIgnoreCase(CharBuffer buffer, int start, char[] keyword) {
+        for (int i = 0; i < keyword.length; i++) {
+            //Letters only reach here so setting the lower case bit folds the case.
+            if ((buffer.get(start + i) | 0x20) != keyword[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte classOf(char character) {
+        if (character < 128) {
+            return CHARACTER_CLASS[character];
+        }
+        return Character.isWhitespace(character) ? WHITESPACE : OTHER;
+    }
+
+    private static boolean isWord(String token) {
+        if (token.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < token.length(); i++) {
+            if (!Character.isLetter(token.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
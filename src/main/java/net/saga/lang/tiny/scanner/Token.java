@@ -18,7 +18,6 @@ package net.saga.lang.tiny.scanner;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -26,8 +25,6 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Token {
 
-    private static ConcurrentHashMap<Token, Token> tokens = new ConcurrentHashMap<>(100);
-    
     private final TokenType mType;
     private final int mValue;
     private final String mName;
@@ -67,22 +64,16 @@ public class Token {
     }
     
     public static Token newInstance(TokenType type, int lineNumber) {
-        Token newToken = new Token(type, lineNumber);
-        tokens.putIfAbsent(newToken, newToken);
-        return tokens.get(newToken);
+        return new Token(type, lineNumber);
     }
     
     
     public static Token newInstance(String name, int lineNumber) {
-        Token newToken = new Token(TokenType.IDENTIFIER, name, lineNumber);
-        tokens.putIfAbsent(newToken, newToken);
-        return tokens.get(newToken);
+        return new Token(TokenType.IDENTIFIER, name, lineNumber);
     }
     
     public static Token newInstance(int value, int lineNumber) {
-        Token newToken = new Token(TokenType.NUMBER, value, lineNumber);
-        tokens.putIfAbsent(newToken, newToken);
-        return tokens.get(newToken);
+        return new Token(TokenType.NUMBER, value, lineNumber);
     }
 
     @Override
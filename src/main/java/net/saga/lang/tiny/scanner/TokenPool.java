@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.scanner;
+
+import java.nio.CharBuffer;
+
+/**
+ * Shares tokens and identifier names within a single compilation.
+ *
+ * Every scanner owns a pool, so nothing outlives the scanner and the pool can
+ * not grow across compilations. Identifier names are interned so that each
+ * distinct name is held once no matter how often it is used, and keyword and
+ * symbol tokens are reused for as long as the scanner stays on the same line.
+ */
+public class TokenPool {
+
+    private final Token[] lastTokens = new Token[TokenType.values().length];
+    private String[] names = new String[64];
+    private int[] hashes = new int[64];
+    private int nameCount = 0;
+
+    public Token token(TokenType type, int lineNumber) {
+        Token token = lastTokens[type.ordinal()];
+        if (token == null || token.getLineNumber() != lineNumber) {
+            token = Token.newInstance(type, lineNumber);
+            lastTokens[type.ordinal()] = token;
+        }
+        return token;
+    }
+
+    public Token identifier(String name, int lineNumber) {
+        return Token.newInstance(intern(name), lineNumber);
+    }
+
+    public Token number(int value, int lineNumber) {
+        return Token.newInstance(value, lineNumber);
+    }
+
+    /**
+     * @param name a name
+     * @return the pooled instance of name
+     */
+    public String intern(String name) {
+        int hash = name.hashCode();
+        int slot = slot(hash);
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && names[slot].equals(name)) {
+                return names[slot];
+            }
+            slot = (slot + 1) & (names.length - 1);
+        }
+        return insert(slot, hash, name);
+    }
+
+    /**
+     * Interns the characters between start and end of the buffer without
+     * creating a String unless the name has not been seen before.
+     *
+     * @param buffer a buffer
+     * @param start absolute index of the first character of the name
+     * @param end absolute index after the last character of the name
+     * @return the pooled name
+     */
+    public String intern(CharBuffer buffer, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        int slot = slot(hash);
+        while (names[slot] != null) {
+            if (hashes[slot] == hash && matches(names[slot], buffer, start, end)) {
+                return names[slot];
+            }
+            slot = (slot + 1) & (names.length - 1);
+        }
+        char[] name = new char[end - start];
+        for (int i = start; i < end; i++) {
+            name[i - start] = buffer.get(i);
+        }
+        return insert(slot, hash, new String(name));
+    }
+
+    public int size() {
+        return nameCount;
+    }
+
+    private String insert(int slot, int hash, String name) {
+        names[slot] = name;
+        hashes[slot] = hash;
+        nameCount++;
+        if (nameCount * 2 > names.length) {
+            grow();
+        }
+        return name;
+    }
+
+    private void grow() {
+        String[] oldNames = names;
+        int[] oldHashes = hashes;
+        names = new String[oldNames.length * 2];
+        hashes = new int[oldNames.length * 2];
+        for (int i = 0; i < oldNames.length; i++) {
+            if (oldNames[i] != null) {
+                int slot = slot(oldHashes[i]);
+                while (names[slot] != null) {
+                    slot = (slot + 1) & (names.length - 1);
+                }
+                names[slot] = oldNames[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private int slot(int hash) {
+        return (hash ^ (hash >>> 16)) & (names.length - 1);
+    }
+
+    private static boolean matches(String name, CharBuffer buffer, int start, int end) {
+        if (name.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (name.charAt(i - start) != buffer.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import net.saga.lang.tiny.server.CompileServer.Language;
+import net.saga.lang.tiny.server.CompileServer.Operation;
+import net.saga.lang.tiny.server.CompileServer.Response;
+
+/**
+ * One connection to a {@link CompileServer}. Requests are sent one at a
+ * time, so a client must not be shared between threads.
+ *
+ * @author summers
+ */
+public class CompileClient implements Closeable {
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    public CompileClient(InetSocketAddress address) throws IOException {
+        socket = new Socket(address.getAddress(), address.getPort());
+        socket.setTcpNoDelay(true);
+        in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    public Response send(Operation operation, Language language, String source) throws IOException {
+        out.writeByte(operation.ordinal());
+        out.writeByte(language.ordinal());
+        CompileServer.writeBytes(out, source.getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        return Response.read(in);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+}
@@ -0,0 +1,550 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package net.saga.lang.tiny.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.compiler.CompilerContext;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.TinyCompiler;
+import net.saga.lang.tiny.interpreter.Assembler;
+import net.saga.lang.tiny.interpreter.Interpreter;
+import net.saga.lang.tiny.interpreter.Program;
+import net.saga.lang.tiny.optimizer.Optimizer;
+import net.saga.lang.tiny.parser.FlatTree;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import net.saga.lang.tiny.scanner.Token;
+
+/**
+ * Compiles, checks and runs programs for clients, in process through
+ * {@link #handle(Operation, Language, String)} or over a loopback socket
+ * opened by {@link #listen(int)}.
+ *
+ * Every connection is served on its own virtual thread when the JVM has
+ * them, and on a platform thread otherwise. At most maxConnections are
+ * served at once; a connection beyond that gets one {@link Status#REJECTED}
+ * response and is closed, so idle connections cannot pile up threads. At
+ * most workers requests are processed at once and at most queueCapacity
+ * more wait for a worker. Any request beyond that is answered with
+ * {@link Status#REJECTED} straight away.
+ *
+ * The time spent in every stage of the pipeline is recorded in a
+ * {@link LatencyHistogram}.
+ *
+ * C-Minus has no code generator yet, so C-Minus programs can only be
+ * checked. Programs are run on the {@link Interpreter}, which writes to a
+ * buffer returned in the response instead of System.out. A run that takes
+ * more than {@link #setMaxBackEdges(long) maxBackEdges} loop iterations or
+ * writes more than {@link #MAX_OUTPUT_LENGTH} characters is stopped and
+ * answered with {@link Status#ERROR}, so no request holds a worker for long.
+ * So is a program nested too deeply to parse.
+ * Programs that read input cannot be run.
+ *
+ * <p>Protocol:
+ * A connection carries any number of requests, each answered before the
+ * next is read. A request is a byte holding the {@link Operation} ordinal,
+ * a byte holding the {@link Language} ordinal, then the source as an int
+ * length and that many bytes of UTF-8. A response is a byte holding the
+ * {@link Status} ordinal, the text as an int length and UTF-8 bytes, then
+ * the class bytes as an int length, -1 when there are none, and the bytes.
+ *
+ * @author summers
+ */
+public class CompileServer implements Closeable {
+
+    public enum Operation {
+        /**
+         * Returns the class file and its internal name as text.
+         */
+        COMPILE,
+        /**
+         * Interprets the program and returns what it writes as text.
+         */
+        RUN,
+        /**
+         * Scans, parses and analyzes the program only.
+         */
+        CHECK
+    }
+
+    public enum Language {
+        TINY, CMINUS
+    }
+
+    public enum Status {
+        OK, ERROR, REJECTED
+    }
+
+    public enum Stage {
+        /**
+         * Waiting for a worker.
+         */
+        QUEUE, SCAN, PARSE, ANALYZE,
+        /**
+         * Generating a class for COMPILE or register code for RUN.
+         */
+        GENERATE, RUN,
+        /**
+         * From admission to response, for requests that were admitted.
+         */
+        TOTAL
+    }
+
+    public static final String CLASS_PREFIX = "tiny/Served";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    public static final long DEFAULT_MAX_BACK_EDGES = 10000000;
+
+    public static final int MAX_OUTPUT_LENGTH = 1 << 20;
+
+    private static final int MAX_SOURCE_LENGTH = 16 << 20;
+
+    private static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    private static final Operation[] OPERATIONS = Operation.values();
+    private static final Language[] LANGUAGES = Language.values();
+
+    private static final IntSupplier NO_INPUT = () -> {
+        throw new UnsupportedOperationException("programs run by the server cannot read input");
+    };
+
+    private final CompilerOptions options;
+    private final Semaphore admission;
+    private final Semaphore workers;
+    private final Semaphore connectionSlots;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final Map<Stage, LatencyHistogram> histograms = new EnumMap<>(Stage.class);
+    private final AtomicLong classCount = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicInteger active = new AtomicInteger();
+    private volatile long maxBackEdges = DEFAULT_MAX_BACK_EDGES;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private volatile ServerSocket serverSocket;
+
+    /**
+     * @param workers how many requests are processed at once
+     * @param queueCapacity how many admitted requests may wait for a worker
+     */
+    public CompileServer(CompilerOptions options, int workers, int queueCapacity) {
+        this(options, workers, queueCapacity, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * @param maxConnections how many socket connections are served at once
+     * @see #CompileServer(CompilerOptions, int, int)
+     */
+    public CompileServer(CompilerOptions options, int workers, int queueCapacity, int maxConnections) {
+        if (workers < 1 || queueCapacity < 0 || maxConnections < 1) {
+            throw new IllegalArgumentException("workers and maxConnections must be positive and queueCapacity not negative");
+        }
+        this.options = options;
+        this.admission = new Semaphore(workers + queueCapacity);
+        this.workers = new Semaphore(workers, true);
+        this.connectionSlots = new Semaphore(maxConnections);
+        ExecutorService virtual = virtualThreadExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tiny-compile-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (Stage stage : Stage.values()) {
+            histograms.put(stage, new LatencyHistogram());
+        }
+    }
+
+    /**
+     * Accepts connections on the loopback address.
+     *
+     * @param port the port, or 0 for any free port
+     * @return the address clients connect to
+     */
+    public synchronized InetSocketAddress listen(int port) throws IOException {
+        if (serverSocket != null) {
+            throw new IllegalStateException("already listening on " + serverSocket.getLocalSocketAddress());
+        }
+        ServerSocket socket = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+        serverSocket = socket;
+        Thread acceptor = new Thread(() -> accept(socket), "tiny-compile-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    /**
+     * Handles a request on the calling thread, subject to the same admission
+     * as requests from sockets.
+     */
+    public Response handle(Operation operation, Language language, String source) {
+        if (!admission.tryAcquire()) {
+            rejected.incrementAndGet();
+            return new Response(Status.REJECTED, "server overloaded", null);
+        }
+        active.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            workers.acquireUninterruptibly();
+            try {
+                histograms.get(Stage.QUEUE).record(System.nanoTime() - start);
+                return process(operation, language, source);
+            } finally {
+                workers.release();
+            }
+        } catch (RuntimeException ex) {
+            return new Response(Status.ERROR, String.valueOf(ex), null);
+        } catch (StackOverflowError ex) {
+            //the parsers and the C-Minus analyzer recurse on nesting
+            return new Response(Status.ERROR, "program nested too deeply", null);
+        } finally {
+            histograms.get(Stage.TOTAL).record(System.nanoTime() - start);
+            completed.incrementAndGet();
+            active.decrementAndGet();
+            admission.release();
+        }
+    }
+
+    /**
+     * @param maxBackEdges how many loop iterations a RUN may take
+     * @return this
+     */
+    public CompileServer setMaxBackEdges(long maxBackEdges) {
+        this.maxBackEdges = maxBackEdges;
+        return this;
+    }
+
+    public long getMaxBackEdges() {
+        return maxBackEdges;
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms.get(stage);
+    }
+
+    /**
+     * @return the requests admitted and answered
+     */
+    public long getCompleted() {
+        return completed.get();
+    }
+
+    /**
+     * @return the requests and connections turned away
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the failed accepts and the connections dropped on an I/O error
+     */
+    public long getFailures() {
+        return failures.get();
+    }
+
+    /**
+     * @return the requests admitted and not yet answered
+     */
+    public int getActive() {
+        return active.get();
+    }
+
+    /**
+     * @return true if connections are served on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    @Override
+    public void close() throws IOException {
+        ServerSocket socket = serverSocket;
+        if (socket != null) {
+            socket.close();
+        }
+        for (Socket connection : connections) {
+            connection.close();
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Accepts until the socket is closed. After a failed accept, for example
+     * when the process is out of file descriptors, it waits before trying
+     * again, twice as long after every further failure up to
+     * {@value #MAX_ACCEPT_BACKOFF_MILLIS}ms.
+     */
+    private void accept(ServerSocket socket) {
+        long backoff = 0;
+        while (!socket.isClosed()) {
+            try {
+                Socket connection = socket.accept();
+                backoff = 0;
+                if (!connectionSlots.tryAcquire()) {
+                    refuse(connection);
+                    continue;
+                }
+                connections.add(connection);
+                try {
+                    executor.execute(() -> serve(connection));
+                } catch (RejectedExecutionException ex) {
+                    connections.remove(connection);
+                    connectionSlots.release();
+                    connection.close();
+                }
+            } catch (IOException ex) {
+                if (socket.isClosed()) {
+                    return;
+                }
+                failures.incrementAndGet();
+                backoff = Math.min(Math.max(1, backoff * 2), MAX_ACCEPT_BACKOFF_MILLIS);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        try (Socket closing = connection;
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            while (true) {
+                int operation = in.read();
+                if (operation < 0) {
+                    return;
+                }
+                int language = in.readUnsignedByte();
+                byte[] source = readBytes(in);
+                Response response;
+                if (operation >= OPERATIONS.length) {
+                    response = new Response(Status.ERROR, "unknown operation " + operation, null);
+                } else if (language >= LANGUAGES.length) {
+                    response = new Response(Status.ERROR, "unknown language " + language, null);
+                } else if (source == null) {
+                    response = new Response(Status.ERROR, "missing source", null);
+                } else {
+                    response = handle(OPERATIONS[operation], LANGUAGES[language], new String(source, StandardCharsets.UTF_8));
+                }
+                response.write(out);
+                out.flush();
+            }
+        } catch (EOFException ex) {
+            // the client hung up mid request
+        } catch (IOException ex) {
+            if (!connection.isClosed()) {
+                failures.incrementAndGet();
+            }
+        } finally {
+            connections.remove(connection);
+            connectionSlots.release();
+        }
+    }
+
+    /**
+     * Answers a connection over the limit and closes it. The response is
+     * small enough for the socket's send buffer, so this does not block the
+     * acceptor.
+     */
+    private void refuse(Socket connection) {
+        rejected.incrementAndGet();
+        try (Socket closing = connection;
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()))) {
+            new Response(Status.REJECTED, "too many connections", null).write(out);
+        } catch (IOException ex) {
+            // the client is gone already
+        }
+    }
+
+    private Response process(Operation operation, Language language, String source) {
+        if (language == Language.CMINUS) {
+            if (operation != Operation.CHECK) {
+                return new Response(Status.ERROR, "C-Minus programs can only be checked", null);
+            }
+            long start = System.nanoTime();
+            List<net.saga.lang.cminus.scanner.Token> tokens = new net.saga.lang.cminus.scanner.Scanner().scan(CharBuffer.wrap(source));
+            start = record(Stage.SCAN, start);
+            net.saga.lang.cminus.parser.Node parseTree = new net.saga.lang.cminus.parser.Parser().parseProgram(tokens);
+            start = record(Stage.PARSE, start);
+            net.saga.lang.cminus.analyize.Analyizer.analyze(parseTree);
+            record(Stage.ANALYZE, start);
+            return new Response(Status.OK, "", null);
+        }
+
+        long start = System.nanoTime();
+        List<Token> tokens = new Scanner().scan(CharBuffer.wrap(source));
+        start = record(Stage.SCAN, start);
+        FlatTree parseTree = new Parser().parseFlat(tokens);
+        start = record(Stage.PARSE, start);
+        SymbolTable symbols = Analyizer.analyze(parseTree);
+        start = record(Stage.ANALYZE, start);
+        if (operation == Operation.CHECK) {
+            return new Response(Status.OK, "", null);
+        }
+        if (operation == Operation.RUN) {
+            return run(parseTree, symbols, start);
+        }
+
+        String className = CLASS_PREFIX + classCount.incrementAndGet();
+        CompilerContext context;
+        if (options.isOptimize()) {
+            context = TinyCompiler.compileProgram(Optimizer.optimize(parseTree.toNode()), options.newContext(className), symbols);
+        } else {
+            context = TinyCompiler.compileProgram(parseTree, options.newContext(className), symbols);
+        }
+        byte[] classBytes = context.jiteClass.toBytes();
+        start = record(Stage.GENERATE, start);
+        return new Response(Status.OK, className, classBytes);
+    }
+
+    private Response run(FlatTree parseTree, SymbolTable symbols, long start) {
+        Program program = Assembler.assemble(parseTree, symbols);
+        start = record(Stage.GENERATE, start);
+        StringBuilder output = new StringBuilder();
+        try {
+            Interpreter.execute(program, new int[program.getFrameSize()], NO_INPUT, value -> {
+                output.append(value).append('\n');
+                if (output.length() > MAX_OUTPUT_LENGTH) {
+                    throw new IllegalStateException("output limit of " + MAX_OUTPUT_LENGTH + " characters exceeded");
+                }
+            }, maxBackEdges);
+        } finally {
+            record(Stage.RUN, start);
+        }
+        return new Response(Status.OK, output.toString(), null);
+    }
+
+    private long record(Stage stage, long start) {
+        long now = System.nanoTime();
+        histograms.get(stage).record(now - start);
+        return now;
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < -1 || length > MAX_SOURCE_LENGTH) {
+            throw new IOException("bad length " + length);
+        }
+        if (length == -1) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        if (bytes == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, or null before
+     * Java 21
+     */
+    private static ExecutorService virtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * The answer to one request.
+     */
+    public static final class Response {
+
+        private final Status status;
+        private final String text;
+        private final byte[] classBytes;
+
+        Response(Status status, String text, byte[] classBytes) {
+            this.status = status;
+            this.text = text;
+            this.classBytes = classBytes;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        /**
+         * @return the class name for COMPILE, the output for RUN and the
+         * reason for ERROR and REJECTED
+         */
+        public String getText() {
+            return text;
+        }
+
+        /**
+         * @return the class file for COMPILE, otherwise null
+         */
+        public byte[] getClassBytes() {
+            return classBytes;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(status.ordinal());
+            writeBytes(out, text.getBytes(StandardCharsets.UTF_8));
+            writeBytes(out, classBytes);
+        }
+
+        static Response read(DataInputStream in) throws IOException {
+            Status status = Status.values()[in.readUnsignedByte()];
+            String text = new String(readBytes(in), StandardCharsets.UTF_8);
+            return new Response(status, text, readBytes(in));
+        }
+    }
+
+}
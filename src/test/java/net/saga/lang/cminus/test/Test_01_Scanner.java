@@ -15,11 +15,17 @@
  */
 package net.saga.lang.cminus.test;
 
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import static java.nio.CharBuffer.wrap;
 import java.util.List;
+import net.saga.lang.cminus.scanner.MappedSource;
 import net.saga.lang.cminus.scanner.Scanner;
 import net.saga.lang.cminus.scanner.Token;
 import net.saga.lang.cminus.scanner.TokenType;
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -191,5 +197,27 @@ public class Test_01_Scanner {
 
     }
 
+    /**
+     * Identifier names are shared within a scan.
+     */
+    @Test
+    public void identifierNamesAreInterned() {
+        List<Token> tokens = new Scanner().scan(wrap("x = 1;\n y = x;"));
+        assertSame(tokens.get(0).getName(), tokens.get(6).getName());
+    }
+
+    /**
+     * A memory mapped file scans to the same tokens as the file read into a
+     * String.
+     *
+     * @throws java.io.IOException this won't happen
+     * @throws java.net.URISyntaxException this won't happen
+     */
+    @Test
+    public void scanMappedSource() throws IOException, URISyntaxException {
+        Path path = Paths.get(Test_01_Scanner.class.getClassLoader().getResource("select.cm").toURI());
+        String program = IOUtils.toString(Test_01_Scanner.class.getClassLoader().getResourceAsStream("select.cm"));
+        assertEquals(new Scanner().scan(wrap(program)), new Scanner().scan(MappedSource.map(path)));
+    }
 
 }
@@ -30,6 +30,7 @@ import net.saga.lang.cminus.parser.StatementKind;
 import net.saga.lang.cminus.parser.TypeSpecifier;
 import net.saga.lang.cminus.scanner.Scanner;
 import net.saga.lang.cminus.scanner.Token;
+import net.saga.lang.cminus.scanner.TokenStream;
 import net.saga.lang.cminus.scanner.TokenType;
 import static net.saga.lang.cminus.scanner.TokenType.PLUS;
 import org.apache.commons.io.IOUtils;
@@ -833,5 +834,31 @@ public class Test_02_Parser {
         assertEquals(TypeSpecifier.INT, params.getTypeSpecifier());
         
     }
-    
+
+    /**
+     * A packed TokenStream holds the same tokens as a scanned List and parses
+     * into the same tree.
+     *
+     * @throws java.io.IOException this won't happen
+     */
+    @Test
+    public void parseProgramFromTokenStream() throws IOException {
+        String program = IOUtils.toString(Test_02_Parser.class.getClassLoader().getResourceAsStream("select.cm"));
+        List<Token> tokens = new Scanner().scan(wrap(program));
+        TokenStream stream = new Scanner().scanPacked(wrap(program));
+
+        assertEquals(tokens.size(), stream.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i), stream.get(i));
+        }
+        assertEquals(new Parser().parseProgram(tokens).toString(), new Parser().parseProgram(stream).toString());
+    }
+
+    @Test
+    public void parseProgramWhileScanning() throws IOException {
+        String program = IOUtils.toString(Test_02_Parser.class.getClassLoader().getResourceAsStream("select.cm"));
+        List<Token> tokens = new Scanner().scan(wrap(program));
+        assertEquals(new Parser().parseProgram(tokens).toString(), new Parser().parseProgram(new Scanner(), wrap(program)).toString());
+    }
+
 }
@@ -17,10 +17,13 @@ package net.saga.lang.cminus.test;
 
 import java.io.IOException;
 import static java.nio.CharBuffer.wrap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import net.saga.lang.cminus.analyize.Analyizer;
 import net.saga.lang.cminus.analyize.SemanticException;
 import net.saga.lang.cminus.analyize.SymbolTable;
+import net.saga.lang.cminus.analyize.SymbolTableEntry;
 import net.saga.lang.cminus.parser.Node;
 import net.saga.lang.cminus.parser.NodeType;
 import static net.saga.lang.cminus.parser.NodeType.BOOLEAN;
@@ -177,6 +180,75 @@ public class Test_04_SemanticAnalysis {
         Analyizer.typeCheck(node);
     }
 
+    @Test
+    public void analyzeInOnePass() {
+        String program = "void main(void){int x; int y; \n"
+                + "  x = 4;y = x;\n"
+                + "  while (x < 10) { x = x + 1; }\n"
+                + "}";
+        Node separate = new Parser().parseDeclaration(new Scanner().scan(wrap(program)));
+        Node fused = new Parser().parseDeclaration(new Scanner().scan(wrap(program)));
+
+        SymbolTable expected = Analyizer.buildSymbolTable(separate);
+        Analyizer.typeCheck(separate);
+        SymbolTable table = Analyizer.analyze(fused);
+
+        assertEquals(expected, table);
+        assertEquals(NodeType.VOID, fused.getChild(0).getNodeType());
+    }
+
+    @Test(expected = SemanticException.class)
+    public void analyzeFailsOnBadWhile() {
+        Node parseTree = new Parser().parseStatement(new Scanner().scan(wrap("while(x + 1) {1+1;}\n")));
+        Analyizer.analyze(parseTree);
+        fail();
+    }
+
+    @Test
+    public void symbolTableKeepsReferencesInLineOrder() {
+        SymbolTable table = new SymbolTable();
+        table.reference("x", 3);
+        table.reference("y", 1);
+        table.put("x", new SymbolTableEntry("x", 0, 1));
+        table.reference("x", 3);
+        table.reference("x", 5);
+
+        assertEquals(2, table.size());
+        assertEquals(0, table.getAddress("x"));
+        assertEquals(1, table.getAddress("y"));
+        assertEquals(Arrays.asList(1, 3, 3, 5), lineNumbers(table.get("x")));
+    }
+
+    @Test
+    public void analyzerAssignsSymbolIds() {
+        Node parseTree = new Parser().parseStatement(new Scanner().scan(wrap("{int x; int y; x = 1; y = x + 1;}")));
+        SymbolTable table = Analyizer.analyze(parseTree);
+        List<Node> identifiers = new ArrayList<>();
+        Analyizer.traverse(parseTree, (Node node) -> {
+            if (node.getName() != null && !node.getName().isEmpty()) {
+                identifiers.add(node);
+            }
+            return null;
+        }, (Node node) -> null);
+
+        assertEquals(0, table.getSymbol("x"));
+        assertEquals(1, table.getSymbol("y"));
+        assertEquals(-1, table.getSymbol("z"));
+        for (Node identifier : identifiers) {
+            assertEquals(table.getSymbol(identifier.getName()), identifier.getSymbol());
+            assertEquals(table.get(identifier.getName()), table.get(identifier.getSymbol()));
+        }
+        assertEquals(1, table.getFirstLine(table.getSymbol("y")));
+    }
+
+    private List<Integer> lineNumbers(List<SymbolTableEntry> entries) {
+        List<Integer> lines = new ArrayList<>();
+        for (SymbolTableEntry entry : entries) {
+            lines.add(entry.lineNumber);
+        }
+        return lines;
+    }
+
     @Test(expected = SemanticException.class)
     public void failOnBadIf() {
         List<Token> tokens = new Scanner().scan(wrap("if (0 + x) { x = 1; }\n"));
@@ -217,4 +289,22 @@ public class Test_04_SemanticAnalysis {
         Node parseTree = new Parser().parseStatement(tokens);
         Analyizer.typeCheck(parseTree);
     }
+
+    /**
+     * Declarations are siblings, so a long program must not be walked
+     * recursively.
+     */
+    @Test
+    public void analyzeLongDeclarationList() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            program.append("int x;\n");
+        }
+        Node parseTree = new Parser().parseProgram(new Scanner().tokens(wrap(program)));
+        SymbolTable table = Analyizer.buildSymbolTable(parseTree);
+        Analyizer.typeCheck(parseTree);
+
+        assertEquals(100000, table.get("x").size());
+    }
+
 }
@@ -17,11 +17,17 @@ package net.saga.lang.tiny.test;
 
 import java.io.IOException;
 import java.nio.CharBuffer;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import static java.nio.CharBuffer.wrap;
 import java.util.List;
+import net.saga.lang.tiny.scanner.MappedSource;
 import net.saga.lang.tiny.scanner.Scanner;
+import net.saga.lang.tiny.scanner.TableScanner;
 import net.saga.lang.tiny.scanner.Token;
 import net.saga.lang.tiny.scanner.TokenType;
+import net.saga.lang.tiny.scanner.UnknownTokenException;
 import static net.saga.lang.tiny.scanner.TokenType.ASSIGNMENT;
 import static net.saga.lang.tiny.scanner.TokenType.END;
 import static net.saga.lang.tiny.scanner.TokenType.EQ;
@@ -266,4 +272,90 @@ public class Test_01_Scanner {
 
     }
 
+    /**
+     * The table driven scanner must produce exactly the same tokens as the
+     * original scanner.
+     *
+     * @throws java.io.IOException this won't happen
+     */
+    @Test
+    public void tableScannerMatchesScanner() throws IOException {
+        String program = IOUtils.toString(Test_01_Scanner.class.getClassLoader().getResourceAsStream("sample.tny"));
+        assertEquals(new Scanner().scan(wrap(program)), new TableScanner().scan(wrap(program)));
+        assertEquals(new Scanner().scan(wrap("IF x<y THEN z:=10*(y-x) END; {a\nb} write comment")),
+                new TableScanner().scan(wrap("IF x<y THEN z:=10*(y-x) END; {a\nb} write comment")));
+    }
+
+    @Test
+    public void tableScannerExtractsNumbers() {
+        Token token = new TableScanner().nextToken(wrap("2147483647"));
+        assertEquals(TokenType.NUMBER, token.getType());
+        assertEquals(Integer.MAX_VALUE, token.getValue());
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void tableScannerErrorOnNumberOverflow() {
+        new TableScanner().nextToken(wrap("2147483648"));
+        fail();
+    }
+
+    @Test(expected = UnknownTokenException.class)
+    public void tableScannerErrorOnUnknownToken() {
+        new TableScanner().scan(wrap("x := y ! 2"));
+        fail();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void tableScannerErrorOnUnterminatedComment() {
+        new TableScanner().nextToken(wrap("{this is a comment"));
+        fail();
+    }
+
+    /**
+     * Long runs of a single character class must not be handled by
+     * recursion.
+     */
+    @Test
+    public void tableScannerHandlesLongRuns() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 1000000; i++) {
+            program.append('x');
+        }
+        for (int i = 0; i < 1000000; i++) {
+            program.append(i % 2 == 0 ? ' ' : '\n');
+        }
+        program.append("end");
+
+        List<Token> tokens = new TableScanner().scan(wrap(program));
+        assertEquals(2, tokens.size());
+        assertEquals(1000000, tokens.get(0).getName().length());
+        assertEquals(Token.newInstance(END, 500001), tokens.get(1));
+    }
+
+    /**
+     * Identifier names are shared within a scan.
+     */
+    @Test
+    public void identifierNamesAreInterned() {
+        List<Token> tokens = new Scanner().scan(wrap("x := 1; \n y := x"));
+        assertSame(tokens.get(0).getName(), tokens.get(6).getName());
+        tokens = new TableScanner().scan(wrap("x := 1; \n y := x"));
+        assertSame(tokens.get(0).getName(), tokens.get(6).getName());
+    }
+
+    /**
+     * A memory mapped file scans to the same tokens as the file read into a
+     * String.
+     *
+     * @throws java.io.IOException this won't happen
+     * @throws java.net.URISyntaxException this won't happen
+     */
+    @Test
+    public void scanMappedSource() throws IOException, URISyntaxException {
+        Path path = Paths.get(Test_01_Scanner.class.getClassLoader().getResource("sample.tny").toURI());
+        String program = IOUtils.toString(Test_01_Scanner.class.getClassLoader().getResourceAsStream("sample.tny"));
+        assertEquals(new Scanner().scan(wrap(program)), new Scanner().scan(MappedSource.map(path)));
+        assertEquals(new Scanner().scan(wrap(program)), new TableScanner().scan(MappedSource.map(path)));
+    }
+
 }
@@ -19,6 +19,7 @@ import java.io.IOException;
 import static java.nio.CharBuffer.wrap;
 import java.util.List;
 import net.saga.lang.tiny.parser.ExpressionKind;
+import net.saga.lang.tiny.parser.FlatTree;
 import net.saga.lang.tiny.parser.Node;
 import static net.saga.lang.tiny.parser.NodeKind.ExpressionNode;
 import static net.saga.lang.tiny.parser.NodeKind.StatementNode;
@@ -26,6 +27,7 @@ import net.saga.lang.tiny.parser.Parser;
 import net.saga.lang.tiny.parser.StatementKind;
 import net.saga.lang.tiny.scanner.Scanner;
 import net.saga.lang.tiny.scanner.Token;
+import net.saga.lang.tiny.scanner.TokenStream;
 import net.saga.lang.tiny.scanner.TokenType;
 import org.apache.commons.io.IOUtils;
 import static org.junit.Assert.*;
@@ -642,4 +644,87 @@ public class Test_02_Parser {
         
     }
 
+    /**
+     * A packed TokenStream holds the same tokens as a scanned List and parses
+     * into the same tree.
+     *
+     * @throws java.io.IOException this won't happen
+     */
+    @Test
+    public void parseProgramFromTokenStream() throws IOException {
+        String program = IOUtils.toString(Test_02_Parser.class.getClassLoader().getResourceAsStream("sample.tny"));
+        List<Token> tokens = new Scanner().scan(wrap(program));
+        TokenStream stream = new Scanner().scanPacked(wrap(program));
+
+        assertEquals(tokens.size(), stream.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            assertEquals(tokens.get(i), stream.get(i));
+        }
+        assertEquals(new Parser().parseProgram(tokens).toString(), new Parser().parseProgram(stream).toString());
+    }
+
+    @Test
+    public void parseProgramWhileScanning() throws IOException {
+        String program = IOUtils.toString(Test_02_Parser.class.getClassLoader().getResourceAsStream("sample.tny"));
+        List<Token> tokens = new Scanner().scan(wrap(program));
+        assertEquals(new Parser().parseProgram(tokens).toString(), new Parser().parseProgram(new Scanner(), wrap(program)).toString());
+    }
+
+    /**
+     * When the parser pulls tokens from the scanner, nothing after the end of
+     * the expression is ever scanned.
+     */
+    @Test
+    public void streamingParseOnlyScansWhatItNeeds() {
+        Node node = new Parser().parseExpression(new Scanner().tokens(wrap("1 + 2; !")));
+        assertEquals(TokenType.ADDITION, node.getOperationAttribute());
+    }
+
+    @Test
+    public void streamingParseSkipsTrailingComment() {
+        Node node = new Parser().parseProgram(new Scanner(), wrap("write x {done}"));
+        assertEquals(StatementKind.WRITE, node.getStatementKind());
+        assertNull(node.getNext());
+    }
+
+    /**
+     * A parse tree can be stored flat and read back unchanged.
+     *
+     * @throws java.io.IOException this won't happen
+     */
+    @Test
+    public void flattenProgram() throws IOException {
+        String program = IOUtils.toString(Test_02_Parser.class.getClassLoader().getResourceAsStream("sample.tny"));
+        Node node = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        FlatTree tree = new Parser().parseFlat(new Scanner().scan(wrap(program)));
+
+        assertEquals(node.toString(), tree.toNode().toString());
+
+        int root = tree.root();
+        assertEquals(StatementKind.READ, tree.getStatementKind(root));
+        assertEquals("x", tree.getName(root));
+        int ifNode = tree.getNext(root);
+        assertEquals(StatementKind.IF, tree.getStatementKind(ifNode));
+        int test = tree.getChild(ifNode, 0);
+        assertEquals(TokenType.LT, tree.getOperationAttribute(test));
+        assertEquals(0, tree.getValue(tree.getChild(test, 0)));
+        assertEquals(FlatTree.NONE, tree.getChild(ifNode, 2));
+        assertEquals(FlatTree.NONE, tree.getNext(ifNode));
+    }
+
+    /**
+     * An expression's operands are added before the operator, so the root of
+     * a flat tree is not always its first node.
+     */
+    @Test
+    public void flatExpressionRoot() {
+        FlatTree tree = new Parser().parseFlat(new Scanner().scan(wrap("x := 1 + 2 * 3")));
+
+        assertEquals(6, tree.size());
+        int expression = tree.getChild(tree.root(), 0);
+        assertEquals(TokenType.ADDITION, tree.getOperationAttribute(expression));
+        assertEquals(TokenType.MULTIPLICATION, tree.getOperationAttribute(tree.getChild(expression, 1)));
+        assertEquals(3, tree.getValue(tree.getChild(tree.getChild(expression, 1), 1)));
+    }
+
 }
@@ -17,14 +17,19 @@ package net.saga.lang.tiny.test;
 
 import java.io.IOException;
 import static java.nio.CharBuffer.wrap;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import net.saga.lang.tiny.analyize.Analyizer;
 import net.saga.lang.tiny.analyize.SemanticException;
+import net.saga.lang.tiny.parser.FlatTree;
 import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.NodeType;
 import net.saga.lang.tiny.parser.Parser;
 import net.saga.lang.tiny.scanner.Scanner;
 import net.saga.lang.tiny.scanner.Token;
 import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.analyize.SymbolTableEntry;
 import static net.saga.lang.tiny.parser.NodeType.BOOLEAN;
 import static net.saga.lang.tiny.parser.NodeType.INTEGER;
 import org.apache.commons.io.IOUtils;
@@ -152,6 +157,81 @@ public class Test_04_SemanticAnalysis {
         Analyizer.typeCheck(parseTree);
     }
 
+    @Test
+    public void analyzeInOnePass() throws IOException {
+        String program = IOUtils.toString(Test_04_SemanticAnalysis.class.getClassLoader().getResourceAsStream("sample.tny"));
+        Node separate = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        Node fused = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+
+        SymbolTable expected = Analyizer.buildSymbolTable(separate);
+        Analyizer.typeCheck(separate);
+        SymbolTable table = Analyizer.analyze(fused);
+
+        assertEquals(expected, table);
+        assertEquals(nodeTypes(separate), nodeTypes(fused));
+    }
+
+    private List<NodeType> nodeTypes(Node parseTree) {
+        List<NodeType> types = new ArrayList<>();
+        Analyizer.traverse(parseTree, (Node node) -> {
+            types.add(node.getNodeType());
+            return null;
+        }, (Node node) -> null);
+        return types;
+    }
+
+    @Test(expected = SemanticException.class)
+    public void analyzeFailsOnBadUntil() {
+        Node parseTree = new Parser().parseStatement(new Scanner().scan(wrap("repeat x := 1 until 0 + x \n")));
+        Analyizer.analyze(parseTree);
+        fail();
+    }
+
+    @Test
+    public void symbolTableKeepsReferencesInLineOrder() {
+        SymbolTable table = new SymbolTable();
+        table.reference("x", 3);
+        table.reference("y", 1);
+        table.put("x", new SymbolTableEntry("x", 0, 1));
+        table.reference("x", 3);
+        table.reference("x", 5);
+
+        assertEquals(2, table.size());
+        assertEquals(0, table.getAddress("x"));
+        assertEquals(1, table.getAddress("y"));
+        assertEquals(Arrays.asList(1, 3, 3, 5), lineNumbers(table.get("x")));
+    }
+
+    @Test
+    public void analyzerAssignsSymbolIds() {
+        Node parseTree = new Parser().parseProgram(new Scanner().scan(wrap("x := 1; y := x + 1; write x + y")));
+        SymbolTable table = Analyizer.analyze(parseTree);
+        List<Node> identifiers = new ArrayList<>();
+        Analyizer.traverse(parseTree, (Node node) -> {
+            if (node.getName() != null && !node.getName().isEmpty()) {
+                identifiers.add(node);
+            }
+            return null;
+        }, (Node node) -> null);
+
+        assertEquals(0, table.getSymbol("x"));
+        assertEquals(1, table.getSymbol("y"));
+        assertEquals(-1, table.getSymbol("z"));
+        for (Node identifier : identifiers) {
+            assertEquals(table.getSymbol(identifier.getName()), identifier.getSymbol());
+            assertEquals(table.get(identifier.getName()), table.get(identifier.getSymbol()));
+        }
+        assertEquals(1, table.getFirstLine(table.getSymbol("y")));
+    }
+
+    private List<Integer> lineNumbers(List<SymbolTableEntry> entries) {
+        List<Integer> lines = new ArrayList<>();
+        for (SymbolTableEntry entry : entries) {
+            lines.add(entry.lineNumber);
+        }
+        return lines;
+    }
+
     @Test(expected = SemanticException.class)
     public void failOnBadIf() {
         List<Token> tokens = new Scanner().scan(wrap("if 0 + x then x := 1 end\n"));
@@ -183,6 +263,79 @@ public class Test_04_SemanticAnalysis {
         Analyizer.typeCheck(parseTree);
         fail();
     }
-    
-    
+
+    @Test
+    public void analyzeFlatTree() throws IOException {
+        String program = IOUtils.toString(Test_04_SemanticAnalysis.class.getClassLoader().getResourceAsStream("sample.tny"));
+        Node parseTree = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        FlatTree tree = new Parser().parseFlat(new Scanner().scan(wrap(program)));
+
+        assertEquals(Analyizer.buildSymbolTable(parseTree), Analyizer.buildSymbolTable(tree));
+
+        Analyizer.typeCheck(tree);
+        assertEquals(BOOLEAN, tree.getNodeType(tree.getChild(tree.getNext(tree.root()), 0)));
+    }
+
+    /**
+     * Every statement in a sequence is a sibling of the one before it, so a
+     * long program must not be walked recursively.
+     */
+    @Test
+    public void analyzeLongStatementSequence() {
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            program.append("x := x + 1;\n");
+        }
+        Node parseTree = new Parser().parseProgram(new Scanner().tokens(wrap(program)));
+        SymbolTable table = Analyizer.buildSymbolTable(parseTree);
+        Analyizer.typeCheck(parseTree);
+
+        assertEquals(200000, table.get("x").size());
+    }
+
+    /**
+     * Additions are left associative, so a long sum is a very deep tree.
+     */
+    @Test
+    public void analyzeDeepExpression() {
+        StringBuilder expression = new StringBuilder("x");
+        for (int i = 0; i < 100000; i++) {
+            expression.append(" + 1");
+        }
+        Node parseTree = new Parser().parseExpression(new Scanner().tokens(wrap(expression)));
+        Analyizer.typeCheck(parseTree);
+
+        assertEquals(INTEGER, parseTree.getNodeType());
+    }
+
+    @Test
+    public void traverseVisitsInOrder() {
+        Node parseTree = new Parser().parseStatement(new Scanner().scan(wrap("x := 1 + y; write x")));
+        StringBuilder order = new StringBuilder();
+        Analyizer.traverse(parseTree,
+                (Node node) -> {
+                    order.append('<').append(label(node));
+                    return null;
+                },
+                (Node node) -> {
+                    order.append('>');
+                    return null;
+                });
+        assertEquals("<ASSIGN<ADDITION<1><y>>><WRITE<x>>", order.toString());
+    }
+
+    private String label(Node node) {
+        if (node.getStatementKind() != null) {
+            return node.getStatementKind().name();
+        }
+        switch (node.getExpressionKind()) {
+            case ConstantExpression:
+                return String.valueOf(node.getValue());
+            case IdentifierExpression:
+                return node.getName();
+            default:
+                return node.getOperationAttribute().name();
+        }
+    }
+
 }
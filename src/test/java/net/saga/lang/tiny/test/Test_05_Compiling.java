@@ -15,10 +15,43 @@
  */
 package net.saga.lang.tiny.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import net.saga.lang.tiny.compiler.ClassCache;
+import net.saga.lang.tiny.compiler.ClassOutput;
+import net.saga.lang.tiny.compiler.CompilationService;
+import net.saga.lang.tiny.compiler.CompilationService.Compilation;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.DirectoryClassOutput;
 import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.compiler.JarClassOutput;
+import net.saga.lang.tiny.compiler.LoaderManager;
+import net.saga.lang.tiny.compiler.ProgramCache;
 import static java.nio.CharBuffer.wrap;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
+import me.qmx.jitescript.JiteClass;
 import me.qmx.jitescript.internal.org.objectweb.asm.Opcodes;
 import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IADD;
 import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_0;
@@ -31,18 +64,40 @@ import me.qmx.jitescript.internal.org.objectweb.asm.tree.LdcInsnNode;
 import me.qmx.jitescript.internal.org.objectweb.asm.tree.MethodInsnNode;
 import me.qmx.jitescript.internal.org.objectweb.asm.tree.VarInsnNode;
 import net.saga.lang.tiny.analyize.Analyizer;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.commons.CodeSizeEvaluator;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.LineNumberNode;
+import org.objectweb.asm.tree.MethodNode;
 import net.saga.lang.tiny.analyize.SymbolTable;
 import net.saga.lang.tiny.compiler.CompilerContext;
 import net.saga.lang.tiny.compiler.TinyCompiler;
+import net.saga.lang.tiny.parser.FlatTree;
 import net.saga.lang.tiny.parser.Node;
 import net.saga.lang.tiny.parser.Parser;
 import net.saga.lang.tiny.scanner.Scanner;
+import net.saga.lang.tiny.server.CompileClient;
+import net.saga.lang.tiny.server.CompileServer;
+import net.saga.lang.tiny.server.CompileServer.Language;
+import net.saga.lang.tiny.server.CompileServer.Operation;
+import net.saga.lang.tiny.server.CompileServer.Response;
+import net.saga.lang.tiny.server.CompileServer.Stage;
+import net.saga.lang.tiny.server.CompileServer.Status;
 import net.saga.lang.tiny.scanner.Token;
 import org.apache.commons.io.IOUtils;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * Now we will compile tiny into actual Java bytecode. We will use JitaCode to
@@ -51,6 +106,9 @@ import org.junit.Test;
 
 public class Test_05_Compiling {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     /**
      * This will test that a number node generates an instruction to push a
      * constant to the JVM stack
@@ -256,6 +314,831 @@ public class Test_05_Compiling {
 //        fail();
     }
 
+    /**
+     * Long statement sequences and deep expressions are compiled without
+     * recursion.
+     */
+    @Test
+    public void testCompileLongProgram() {
+        StringBuilder program = new StringBuilder("x := 0");
+        for (int i = 0; i < 50000; i++) {
+            program.append(";\nx := x + 1");
+        }
+        program.append(";\nx := x");
+        for (int i = 0; i < 50000; i++) {
+            program.append(" + 1");
+        }
+
+        Node parseTree = new Parser().parseStatement(new Scanner().tokens(wrap(program)));
+        SymbolTable table = Analyizer.buildSymbolTable(parseTree);
+        Analyizer.typeCheck(parseTree);
+        InsnList insList = TinyCompiler.compileStatement(parseTree, new CompilerContext(), table).currentBlock().getInstructionList();
+
+        assertTrue(insList.size() > 250000);
+    }
+
+    @Test
+    public void testCompileFlatProgram() throws Exception {
+        String program = IOUtils.toString(Test_05_Compiling.class.getClassLoader().getResourceAsStream("sample.tny"));
+        FlatTree tree = new Parser().parseFlat(new Scanner().scan(wrap(program)));
+        SymbolTable table = Analyizer.buildSymbolTable(tree);
+        Analyizer.typeCheck(tree);
+
+        CompilerContext context = TinyCompiler.compileProgram(tree, new CompilerContext(), table);
+        Class<?> klass = new DynamicClassLoader().define(context.jiteClass);
+        assertNotNull(klass.getMethod("main", String[].class));
+    }
+
+    /**
+     * A program over HugeMethodLimit is split into helpers that each stay
+     * under it, and prints the same as the single main.
+     */
+    @Test
+    public void testSplitLargeMain() throws Exception {
+        String program = loopProgram(20, 400, 400);
+
+        CompilerContext single = TinyCompiler.compileProgram(analyzed(program), new CompilerContext().setMethodSizeLimit(0), table(program));
+        CompilerContext split = TinyCompiler.compileProgram(analyzed(program), new CompilerContext(), table(program));
+
+        assertEquals(Collections.singleton("main"), single.getMethods());
+        assertTrue(split.getMethods().size() > 2);
+        byte[] splitBytes = split.jiteClass.toBytes();
+        for (int size : methodSizes(splitBytes)) {
+            assertTrue("method of " + size + " bytes", size < 8000);
+        }
+        assertEquals(run(single.jiteClass.toBytes()), run(splitBytes));
+    }
+
+    /**
+     * A program over the 64KB method limit can only be compiled split. A
+     * REPEAT body that is too large on its own is split again.
+     */
+    @Test
+    public void testSplitMainOverMethodLimit() throws Exception {
+        String program = loopProgram(7, 3000, 4000);
+
+        byte[] fine = TinyCompiler.compileProgram(analyzed(program), new CompilerContext().setMethodSizeLimit(1000), table(program)).jiteClass.toBytes();
+        byte[] split = TinyCompiler.compileProgram(analyzed(program), new CompilerContext(), table(program)).jiteClass.toBytes();
+
+        for (int size : methodSizes(split)) {
+            assertTrue("method of " + size + " bytes", size < 8000);
+        }
+        String output = run(split);
+        assertEquals(run(fine), output);
+        assertFalse(output.isEmpty());
+    }
+
+    /**
+     * Variables past local 255 take wide loads and stores, which split
+     * methods must be sized for.
+     */
+    @Test
+    public void testSplitMainWithWideLocals() throws Exception {
+        Random random = new Random(11);
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            program.append(variable(i)).append(" := ").append(i).append(";\n");
+        }
+        for (int line = 0; line < 1500; line++) {
+            program.append(variable(256 + random.nextInt(44))).append(" := ").append(variable(256 + random.nextInt(44)));
+            for (int term = 0; term < 15; term++) {
+                program.append(" + ").append(variable(256 + random.nextInt(44)));
+            }
+            program.append(";\n");
+        }
+        for (int i = 256; i < 300; i++) {
+            program.append("write ").append(variable(i)).append(";\n");
+        }
+        program.append("write ").append(variable(0));
+
+        byte[] fine = TinyCompiler.compileProgram(analyzed(program.toString()), new CompilerContext().setMethodSizeLimit(1000), table(program.toString())).jiteClass.toBytes();
+        byte[] split = TinyCompiler.compileProgram(analyzed(program.toString()), new CompilerContext(), table(program.toString())).jiteClass.toBytes();
+
+        for (int size : methodSizes(split)) {
+            assertTrue("method of " + size + " bytes", size <= CompilerContext.DEFAULT_METHOD_SIZE_LIMIT);
+        }
+        assertEquals(run(fine), run(split));
+    }
+
+    @Test
+    public void testReleaseModeOmitsDebugTables() throws Exception {
+        String program = IOUtils.toString(Test_05_Compiling.class.getClassLoader().getResourceAsStream("sample.tny"));
+
+        byte[] debug = TinyCompiler.compileProgram(analyzed(program), new CompilerContext(), table(program)).jiteClass.toBytes();
+        byte[] release = TinyCompiler.compileProgram(analyzed(program), new CompilerContext().setDebug(false), table(program)).jiteClass.toBytes();
+
+        MethodNode debugMain = method(debug, "main");
+        MethodNode releaseMain = method(release, "main");
+        assertFalse(debugMain.localVariables.isEmpty());
+        assertTrue(lineNumbers(debugMain) > 0);
+        assertTrue(releaseMain.localVariables == null || releaseMain.localVariables.isEmpty());
+        assertEquals(0, lineNumbers(releaseMain));
+        assertTrue(release.length < debug.length);
+    }
+
+    @Test
+    public void testReleaseModeRunsTheSame() throws Exception {
+        String program = loopProgram(20, 400, 400);
+
+        byte[] debug = TinyCompiler.compileProgram(analyzed(program), new CompilerContext(), table(program)).jiteClass.toBytes();
+        byte[] release = TinyCompiler.compileProgram(analyzed(program), new CompilerContext().setDebug(false), table(program)).jiteClass.toBytes();
+
+        assertEquals(run(debug), run(release));
+    }
+
+    @Test
+    public void testDefineInMemoryOnly() {
+        String name = "InMemory" + System.nanoTime();
+        Class<?> klass = new DynamicClassLoader().define(compiled("write 1", name).jiteClass);
+
+        assertEquals(name, klass.getName());
+        assertFalse(new File(System.getProperty("java.io.tmpdir"), name + ".class").exists());
+    }
+
+    @Test
+    public void testDefineChildClasses() throws Exception {
+        JiteClass parent = new JiteClass("Parent");
+        parent.defineDefaultConstructor();
+        JiteClass child = new JiteClass("Parent$Child");
+        child.defineDefaultConstructor();
+        JiteClass grandChild = new JiteClass("Parent$Child$GrandChild");
+        grandChild.defineDefaultConstructor();
+        child.addChildClass(grandChild);
+        parent.addChildClass(child);
+
+        DynamicClassLoader loader = new DynamicClassLoader();
+        Class<?> klass = loader.define(parent);
+
+        assertEquals("Parent", klass.getName());
+        assertEquals(loader, loader.loadClass("Parent$Child").getClassLoader());
+        assertEquals(loader, loader.loadClass("Parent$Child$GrandChild").getClassLoader());
+    }
+
+    @Test
+    public void testDirectoryOutput() throws Exception {
+        File directory = temporaryFolder.newFolder("classes");
+        try (DirectoryClassOutput output = new DirectoryClassOutput(directory.toPath(), 2)) {
+            for (int i = 0; i < 5; i++) {
+                new DynamicClassLoader(output).define(compiled("write " + i, "net/saga/Dumped" + i).jiteClass);
+            }
+        }
+
+        for (int i = 0; i < 5; i++) {
+            File classFile = new File(directory, "net/saga/Dumped" + i + ".class");
+            assertTrue(classFile.getPath(), classFile.exists());
+            assertEquals("net/saga/Dumped" + i, new ClassReader(Files.readAllBytes(classFile.toPath())).getClassName());
+        }
+    }
+
+    /**
+     * Every write that returns before or while the output closes must reach
+     * the disk.
+     */
+    @Test
+    public void testDirectoryOutputWritesRacingClose() throws Exception {
+        byte[] classBytes = compiled("write 1", "net/saga/Raced").jiteClass.toBytes();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 50; round++) {
+                File directory = temporaryFolder.newFolder("raced" + round);
+                DirectoryClassOutput output = new DirectoryClassOutput(directory.toPath(), 1);
+                List<Future<Set<String>>> writers = new ArrayList<>();
+                for (int thread = 0; thread < 4; thread++) {
+                    String prefix = "net/saga/Raced" + thread + "_";
+                    writers.add(executor.submit(() -> {
+                        Set<String> written = new HashSet<>();
+                        try {
+                            for (int i = 0; ; i++) {
+                                output.write(prefix + i, classBytes);
+                                written.add(prefix + i);
+                            }
+                        } catch (IOException closed) {
+                            return written;
+                        }
+                    }));
+                }
+                Thread.sleep(1);
+                output.close();
+                for (Future<Set<String>> writer : writers) {
+                    for (String name : writer.get(30, TimeUnit.SECONDS)) {
+                        assertTrue(name, new File(directory, name + ".class").exists());
+                    }
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testJarOutput() throws Exception {
+        File jarFile = new File(temporaryFolder.getRoot(), "classes.jar");
+        try (JarClassOutput output = new JarClassOutput(jarFile.toPath(), 2)) {
+            for (int i = 0; i < 5; i++) {
+                new DynamicClassLoader(output).define(compiled("write " + i, "net/saga/Jarred" + i).jiteClass);
+            }
+            new DynamicClassLoader(output).define(compiled("write 0", "net/saga/Jarred0").jiteClass);
+        }
+
+        try (JarFile jar = new JarFile(jarFile)) {
+            assertEquals(5, jar.size());
+            for (int i = 0; i < 5; i++) {
+                assertNotNull(jar.getEntry("net/saga/Jarred" + i + ".class"));
+            }
+        }
+    }
+
+    @Test
+    public void testLoaderManagerEvictsLeastRecentlyUsed() {
+        LoaderManager manager = new LoaderManager(4, 8, ClassOutput.NONE);
+        for (int i = 0; i < 20; i++) {
+            manager.define("p" + i, compiled("write " + i, "net/saga/Managed" + i).jiteClass);
+            manager.get("p0");
+        }
+
+        assertEquals(8, manager.size());
+        assertEquals(12, manager.getEvictedPrograms());
+        assertNotNull(manager.get("p0"));
+        assertEquals(null, manager.get("p1"));
+        assertNotNull(manager.get("p19"));
+        assertEquals(manager.get("p17").getClassLoader(), manager.get("p18").getClassLoader());
+        assertFalse(manager.get("p0").getClassLoader().equals(manager.get("p19").getClassLoader()));
+        assertEquals(20, manager.getLoadedClasses() + manager.getUnloadedClasses());
+    }
+
+    @Test
+    public void testLoaderManagerSeparatesSameNames() {
+        LoaderManager manager = new LoaderManager();
+        Class<?> first = manager.define("first", compiled("write 1", "anonymous").jiteClass);
+        Class<?> second = manager.define("second", compiled("write 2", "anonymous").jiteClass);
+
+        assertEquals(first.getName(), second.getName());
+        assertFalse(first.getClassLoader().equals(second.getClassLoader()));
+    }
+
+    @Test
+    public void testLoaderManagerUnloadsEvictedPrograms() throws Exception {
+        LoaderManager manager = new LoaderManager(4, 100, ClassOutput.NONE);
+        for (int i = 0; i < 40; i++) {
+            manager.define("p" + i, compiled("write " + i, "net/saga/Unloaded" + i).jiteClass);
+        }
+        long bytes = manager.getLoadedBytes();
+        for (int i = 0; i < 40; i++) {
+            manager.evict("p" + i);
+        }
+
+        for (int i = 0; i < 50 && manager.getUnloadedClasses() < 40; i++) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        assertEquals(40, manager.getUnloadedClasses());
+        assertEquals(bytes, manager.getUnloadedBytes());
+        assertEquals(0, manager.getLoadedClasses());
+    }
+
+    /**
+     * Compiles many programs in a JVM with a small Metaspace. Set
+     * tiny.soak.programs to run a longer soak, e.g. -Dtiny.soak.programs=1000000.
+     */
+    @Test
+    public void testLoaderManagerSoak() throws Exception {
+        String classPath = System.getProperty("surefire.test.class.path", System.getProperty("java.class.path"));
+        Process soak = new ProcessBuilder(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-XX:MaxMetaspaceSize=" + System.getProperty("tiny.soak.metaspace", "32m"),
+                "-cp", classPath,
+                Soak.class.getName(),
+                System.getProperty("tiny.soak.programs", "20000"))
+                .redirectErrorStream(true)
+                .start();
+        String output;
+        try (InputStream in = soak.getInputStream()) {
+            output = IOUtils.toString(in);
+        }
+
+        assertEquals(output, 0, soak.waitFor());
+        assertTrue(output, output.contains("unloaded"));
+    }
+
+    public static class Soak {
+
+        public static void main(String[] args) {
+            int count = Integer.parseInt(args[0]);
+            LoaderManager manager = new LoaderManager();
+            for (int i = 0; i < count; i++) {
+                String program = "x := " + i + ";\nwrite x + 1";
+                manager.define(program, compiled(program, "net/saga/Soak" + i).jiteClass);
+            }
+            if (manager.getUnloadedClasses() == 0) {
+                throw new AssertionError("no classes were unloaded");
+            }
+            System.out.printf("%d programs, %d loaded (%d bytes), %d unloaded (%d bytes)%n",
+                    count, manager.getLoadedClasses(), manager.getLoadedBytes(),
+                    manager.getUnloadedClasses(), manager.getUnloadedBytes());
+        }
+    }
+
+    @Test
+    public void testClassCacheHitsAcrossInstances() throws Exception {
+        File directory = temporaryFolder.newFolder("cache");
+        Class<?> compiled;
+        try (ClassCache cache = new ClassCache(directory.toPath(), 64)) {
+            compiled = cache.load("write 6", new CompilerOptions(), new DynamicClassLoader());
+            assertEquals(0, cache.getHits());
+            assertEquals(1, cache.getMisses());
+        }
+
+        try (ClassCache cache = new ClassCache(directory.toPath(), 64)) {
+            Class<?> cached = cache.load("write 6", new CompilerOptions(), new DynamicClassLoader());
+            assertEquals(1, cache.getHits());
+            assertEquals(0, cache.getMisses());
+            assertEquals(compiled.getName(), cached.getName());
+            assertEquals(run(compiled), run(cached));
+        }
+    }
+
+    @Test
+    public void testClassCacheKeysOnOptions() throws Exception {
+        CompilerOptions debug = new CompilerOptions();
+        CompilerOptions release = new CompilerOptions().setDebug(false);
+        assertFalse(ClassCache.className("write 6", debug).equals(ClassCache.className("write 6", release)));
+
+        try (ClassCache cache = new ClassCache(temporaryFolder.newFolder("cache").toPath(), 64)) {
+            for (int i = 0; i < 2; i++) {
+                cache.load("write 6", debug, new DynamicClassLoader());
+                cache.load("write 6", release, new DynamicClassLoader());
+            }
+            assertEquals(2, cache.getMisses());
+            assertEquals(2, cache.getHits());
+        }
+    }
+
+    @Test
+    public void testClassCacheEvicts() throws Exception {
+        File directory = temporaryFolder.newFolder("cache");
+        try (ClassCache cache = new ClassCache(directory.toPath(), ClassCache.WAYS)) {
+            for (int i = 0; i < ClassCache.WAYS + 2; i++) {
+                cache.load("write " + i, new CompilerOptions(), new DynamicClassLoader());
+            }
+            assertEquals(2, cache.getEvictions());
+            assertEquals(ClassCache.WAYS, directory.listFiles((dir, name) -> name.endsWith(".class")).length);
+
+            cache.load("write 0", new CompilerOptions(), new DynamicClassLoader());
+            assertEquals(ClassCache.WAYS + 3, cache.getMisses());
+        }
+    }
+
+    @Test
+    public void testClassCacheRejectsIndexTooLargeToMap() throws Exception {
+        File directory = temporaryFolder.newFolder("cache");
+        try {
+            new ClassCache(directory.toPath(), Integer.MAX_VALUE).close();
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertFalse(new File(directory, "index").exists());
+        }
+    }
+
+    @Test
+    public void testClassCachesShareAnIndexAcrossThreads() throws Exception {
+        File directory = temporaryFolder.newFolder("cache");
+        File other = temporaryFolder.newFolder("other");
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        try (ClassCache first = new ClassCache(directory.toPath(), 64);
+                ClassCache second = new ClassCache(directory.toPath().resolve("..").resolve("cache"), 64);
+                ClassCache separate = new ClassCache(other.toPath(), 64)) {
+            ClassCache[] caches = {first, second, separate};
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<?>> loads = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                ClassCache cache = caches[i % caches.length];
+                loads.add(executor.submit(() -> {
+                    start.await();
+                    for (int program = 0; program < 20; program++) {
+                        cache.load("write " + program, new CompilerOptions(), new DynamicClassLoader());
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> load : loads) {
+                load.get();
+            }
+            assertEquals(120, first.getHits() + first.getMisses() + second.getHits() + second.getMisses()
+                    + separate.getHits() + separate.getMisses());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testProgramCacheCompilesOnce() throws Exception {
+        ProgramCache cache = new ProgramCache(new CompilerOptions(), 1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Class<?>>> loads = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                loads.add(executor.submit(() -> {
+                    start.await();
+                    return cache.load("x := 6;\nwrite x * 7");
+                }));
+            }
+            start.countDown();
+            for (Future<Class<?>> load : loads) {
+                assertEquals(loads.get(0).get(), load.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, cache.getMisses());
+        assertEquals(7, cache.getHits());
+        assertEquals("42\n", run(cache.load("x := 6;\nwrite x * 7")).replace("\r\n", "\n"));
+    }
+
+    @Test
+    public void testProgramCacheNormalizesSource() {
+        ProgramCache cache = new ProgramCache(new CompilerOptions(), 1 << 20);
+
+        assertEquals("write 1;\nwrite 2", ProgramCache.normalize("write 1;  \r\nwrite 2\t\n\n"));
+        assertEquals(cache.load("write 1;\nwrite 2"), cache.load("write 1; \r\nwrite 2\n"));
+        assertEquals(1, cache.getMisses());
+        assertEquals("write 1;\rwrite 2", ProgramCache.normalize("write 1;\rwrite 2"));
+        assertNotSame(cache.load("write 1;\nwrite 2"), cache.load("write 1;\rwrite 2"));
+    }
+
+    @Test
+    public void testProgramCacheEvictsByWeight() {
+        ProgramCache probe = new ProgramCache(new CompilerOptions(), 1 << 20);
+        probe.load("write 1");
+        long weight = probe.getWeight();
+
+        ProgramCache cache = new ProgramCache(new CompilerOptions(), 3 * weight, 1, null);
+        for (int i = 1; i <= 5; i++) {
+            cache.load("write " + i);
+        }
+        assertEquals(3, cache.size());
+        assertEquals(2, cache.getEvictions());
+        assertEquals(3 * weight, cache.getWeight());
+
+        cache.load("write 5");
+        cache.load("write 1");
+        assertEquals(1, cache.getHits());
+        assertEquals(6, cache.getMisses());
+    }
+
+    @Test
+    public void testCompilationServiceBatchKeepsOrder() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            CompilationService service = new CompilationService(new CompilerOptions(), pool, "net/saga/Batch");
+            List<String> sources = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                sources.add("x := " + i + ";\nwrite x");
+            }
+            sources.set(5, "x := ;");
+
+            List<Compilation> compilations = service.compileAll(sources);
+            assertEquals(sources.size(), compilations.size());
+            assertFalse(compilations.get(5).isSuccess());
+            assertNotNull(compilations.get(5).getError());
+
+            Set<String> classNames = new HashSet<>();
+            for (Compilation compilation : compilations) {
+                assertTrue(classNames.add(compilation.getClassName()));
+            }
+            List<Class<?>> classes = CompilationService.defineAll(compilations, new DynamicClassLoader());
+            for (int i : new int[]{0, 4, 6, 1999}) {
+                assertEquals(i + "\n", run(classes.get(i)).replace("\r\n", "\n"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testServerOverLoopback() throws Exception {
+        int clients = 32;
+        int requests = 20;
+        try (CompileServer server = new CompileServer(new CompilerOptions(), 4, clients)) {
+            InetSocketAddress address = server.listen(0);
+            ExecutorService executor = Executors.newFixedThreadPool(clients);
+            try {
+                List<Future<Integer>> results = new ArrayList<>();
+                for (int c = 0; c < clients; c++) {
+                    int client = c;
+                    results.add(executor.submit(() -> {
+                        int passed = 0;
+                        try (CompileClient connection = new CompileClient(address)) {
+                            for (int i = 0; i < requests; i++) {
+                                int value = client * 1000 + i;
+                                Response response = connection.send(Operation.RUN, Language.TINY, "x := " + value + ";\nwrite x");
+                                if (response.getStatus() == Status.OK && response.getText().trim().equals(Integer.toString(value))) {
+                                    passed++;
+                                }
+                            }
+                        }
+                        return passed;
+                    }));
+                }
+                for (Future<Integer> result : results) {
+                    assertEquals(requests, (int) result.get());
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            try (CompileClient connection = new CompileClient(address)) {
+                Response compiled = connection.send(Operation.COMPILE, Language.TINY, "write 1");
+                assertEquals(Status.OK, compiled.getStatus());
+                assertEquals(compiled.getText(), new ClassReader(compiled.getClassBytes()).getClassName());
+                assertEquals(Status.OK, connection.send(Operation.CHECK, Language.CMINUS, "int main(void) { return 1; }").getStatus());
+                assertEquals(Status.ERROR, connection.send(Operation.RUN, Language.CMINUS, "int main(void) { return 1; }").getStatus());
+                assertEquals(Status.ERROR, connection.send(Operation.COMPILE, Language.TINY, "x := ;").getStatus());
+            }
+
+            assertEquals(0, server.getRejected());
+            assertEquals(clients * requests + 4, server.getCompleted());
+            assertEquals(clients * requests, server.getHistogram(Stage.RUN).getCount());
+            assertEquals(server.getCompleted(), server.getHistogram(Stage.TOTAL).getCount());
+        }
+    }
+
+    @Test
+    public void testServerRejectsWhenFull() throws Exception {
+        String busy = "x := 0;\nrepeat\nx := x + 1\nuntil 0 = 1;\nwrite x";
+        try (CompileServer server = new CompileServer(new CompilerOptions(), 1, 0).setMaxBackEdges(50000000)) {
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            try {
+                Future<Response> running = executor.submit(() -> server.handle(Operation.RUN, Language.TINY, busy));
+                while (server.getActive() == 0 && !running.isDone()) {
+                    Thread.yield();
+                }
+                assertEquals(Status.REJECTED, server.handle(Operation.CHECK, Language.TINY, "write 1").getStatus());
+                assertEquals(Status.ERROR, running.get().getStatus());
+                assertTrue(running.get().getText().contains("loop limit"));
+            } finally {
+                executor.shutdown();
+            }
+            assertEquals(1, server.getRejected());
+            assertEquals(Status.OK, server.handle(Operation.CHECK, Language.TINY, "write 1").getStatus());
+        }
+    }
+
+    @Test
+    public void testServerLimitsConnections() throws Exception {
+        try (CompileServer server = new CompileServer(new CompilerOptions(), 1, 0, 2)) {
+            InetSocketAddress address = server.listen(0);
+            CompileClient first = new CompileClient(address);
+            try (CompileClient second = new CompileClient(address)) {
+                assertEquals(Status.OK, first.send(Operation.CHECK, Language.TINY, "write 1").getStatus());
+                assertEquals(Status.OK, second.send(Operation.CHECK, Language.TINY, "write 1").getStatus());
+                try (Socket third = new Socket(address.getAddress(), address.getPort())) {
+                    assertEquals(Status.REJECTED.ordinal(), third.getInputStream().read());
+                    assertEquals(1, server.getRejected());
+                }
+            }
+            first.close();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            Status status = Status.REJECTED;
+            while (status == Status.REJECTED && System.currentTimeMillis() < deadline) {
+                try (Socket next = new Socket(address.getAddress(), address.getPort())) {
+                    DataOutputStream out = new DataOutputStream(next.getOutputStream());
+                    out.writeByte(Operation.CHECK.ordinal());
+                    out.writeByte(Language.TINY.ordinal());
+                    out.writeInt(7);
+                    out.write("write 1".getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    status = Status.values()[next.getInputStream().read()];
+                } catch (IOException ex) {
+                    // refused while the closed connections are released
+                }
+            }
+            assertEquals(Status.OK, status);
+        }
+    }
+
+    @Test
+    public void testServerAnswersBadRequestBytes() throws Exception {
+        try (CompileServer server = new CompileServer(new CompilerOptions(), 1, 0);
+                Socket socket = new Socket()) {
+            InetSocketAddress address = server.listen(0);
+            socket.connect(address);
+            DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+            for (int[] request : new int[][]{{200, 0}, {0, 200}, {Operation.CHECK.ordinal(), Language.TINY.ordinal()}}) {
+                out.writeByte(request[0]);
+                out.writeByte(request[1]);
+                out.writeInt(7);
+                out.write("write 1".getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Status expected = request[0] == 200 || request[1] == 200 ? Status.ERROR : Status.OK;
+                assertEquals(expected, Status.values()[in.readUnsignedByte()]);
+                in.readFully(new byte[in.readInt()]);
+                assertEquals(-1, in.readInt());
+            }
+
+            out.writeByte(Operation.CHECK.ordinal());
+            out.writeByte(Language.TINY.ordinal());
+            out.writeInt(-1);
+            out.flush();
+            assertEquals(Status.ERROR, Status.values()[in.readUnsignedByte()]);
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            assertEquals("missing source", new String(text, StandardCharsets.UTF_8));
+            assertEquals(-1, in.readInt());
+            assertEquals(0, server.getFailures());
+        }
+    }
+
+    @Test
+    public void testServerAnswersDeepNesting() throws Exception {
+        StringBuilder tiny = new StringBuilder("write ");
+        StringBuilder cminus = new StringBuilder("void main(void) { x = ");
+        for (int i = 0; i < 200000; i++) {
+            tiny.append('(');
+            cminus.append('(');
+        }
+        try (CompileServer server = new CompileServer(new CompilerOptions(), 1, 0)) {
+            Response response = server.handle(Operation.CHECK, Language.TINY, tiny.toString());
+            assertEquals(Status.ERROR, response.getStatus());
+            assertEquals("program nested too deeply", response.getText());
+            assertEquals(Status.ERROR, server.handle(Operation.CHECK, Language.CMINUS, cminus.toString()).getStatus());
+            assertEquals(Status.OK, server.handle(Operation.CHECK, Language.TINY, "write 1").getStatus());
+        }
+    }
+
+    /**
+     * RUN writes to the response only, and a program that writes forever is
+     * stopped like one that loops forever.
+     */
+    @Test
+    public void testServerRunLeavesSystemOutAlone() throws Exception {
+        PrintStream out = System.out;
+        try (CompileServer server = new CompileServer(new CompilerOptions(), 1, 0)) {
+            Response response = server.handle(Operation.RUN, Language.TINY, "x := 6;\nwrite x * 7");
+            assertEquals(Status.OK, response.getStatus());
+            assertEquals("42\n", response.getText());
+            assertSame(out, System.out);
+
+            response = server.handle(Operation.RUN, Language.TINY, "repeat\nwrite 1\nuntil 0 = 1");
+            assertEquals(Status.ERROR, response.getStatus());
+            assertTrue(response.getText().contains("output limit"));
+            assertEquals(Status.ERROR, server.handle(Operation.RUN, Language.TINY, "read x;\nwrite x").getStatus());
+        }
+        assertSame(out, System.out);
+    }
+
+    private static CompilerContext compiled(String program, String className) {
+        Node parseTree = analyzed(program);
+        return TinyCompiler.compileProgram(parseTree, new CompilerContext(className), table(program));
+    }
+
+    private MethodNode method(byte[] classBytes, String name) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classBytes).accept(classNode, 0);
+        for (Object method : classNode.methods) {
+            if (((MethodNode) method).name.equals(name)) {
+                return (MethodNode) method;
+            }
+        }
+        throw new AssertionError(name + " not found");
+    }
+
+    private int lineNumbers(MethodNode method) {
+        int count = 0;
+        for (AbstractInsnNode insn = method.instructions.getFirst(); insn != null; insn = insn.getNext()) {
+            if (insn instanceof LineNumberNode) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private String loopProgram(int iterations, int loopLines, int tailLines) {
+        Random random = new Random(7);
+        StringBuilder program = new StringBuilder();
+        for (int i = 0; i < 26; i++) {
+            program.append(variable(i)).append(" := ").append(i).append(";\n");
+        }
+        program.append("counter := ").append(iterations).append(";\nrepeat\n");
+        for (int i = 0; i < loopLines; i++) {
+            program.append(randomAssignment(random)).append(";\n");
+        }
+        program.append("counter := counter - 1\nuntil counter = 0;\n");
+        for (int i = 0; i < tailLines; i++) {
+            program.append(randomAssignment(random)).append(";\n");
+        }
+        for (int i = 0; i < 26; i++) {
+            program.append("write ").append(variable(i)).append(";\n");
+        }
+        return program.append("write counter").toString();
+    }
+
+    private String randomAssignment(Random random) {
+        return variable(random.nextInt(26)) + " := " + variable(random.nextInt(26)) + " + "
+                + random.nextInt(9) + " * " + variable(random.nextInt(26)) + " - "
+                + variable(random.nextInt(26)) + " / " + (1 + random.nextInt(9));
+    }
+
+    private static Node analyzed(String program) {
+        Node parseTree = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        Analyizer.analyze(parseTree);
+        return parseTree;
+    }
+
+    private static SymbolTable table(String program) {
+        return Analyizer.analyze(new Parser().parseProgram(new Scanner().scan(wrap(program))));
+    }
+
+    private List<Integer> methodSizes(byte[] classBytes) {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(classBytes).accept(classNode, 0);
+        List<Integer> sizes = new ArrayList<>();
+        for (Object method : classNode.methods) {
+            CodeSizeEvaluator evaluator = new CodeSizeEvaluator(null);
+            ((MethodNode) method).accept(evaluator);
+            sizes.add(evaluator.getMaxSize());
+        }
+        return sizes;
+    }
+
+    private String run(byte[] classBytes) throws Exception {
+        return run(new BytesLoader().define(classBytes));
+    }
+
+    private String run(Class<?> klass) throws Exception {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            klass.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString();
+    }
+
+    private static class BytesLoader extends ClassLoader {
+
+        private Class<?> define(byte[] classBytes) {
+            return defineClass(null, classBytes, 0, classBytes.length);
+        }
+    }
+
+    /**
+     * Once a program is compiled nothing may keep its scanner, token pool or
+     * tokens reachable, so after 100K more programs are compiled in the same
+     * JVM the references to them must be cleared.
+     */
+    @Test
+    public void testCompilingManyProgramsDoesNotRetainTokens() {
+        Scanner scanner = new Scanner();
+        List<Token> tokens = scanner.scan(wrap(generatedProgram(0)));
+        WeakReference<Scanner> scannerReference = new WeakReference<>(scanner);
+        WeakReference<Token> tokenReference = new WeakReference<>(tokens.get(0));
+        compileToBytes(tokens);
+        scanner = null;
+        tokens = null;
+
+        for (int i = 1; i <= 100000; i++) {
+            compileToBytes(new Scanner().scan(wrap(generatedProgram(i))));
+        }
+        for (int i = 0; i < 10 && (scannerReference.get() != null || tokenReference.get() != null); i++) {
+            System.gc();
+        }
+        assertNull("The token pool outlived its compilation", scannerReference.get());
+        assertNull("A scanned token outlived its compilation", tokenReference.get());
+    }
+
+    private String generatedProgram(int seed) {
+        StringBuilder program = new StringBuilder();
+        for (int statement = 0; statement < 10; statement++) {
+            String name = variable(seed * 10 + statement);
+            program.append(name).append(" := ").append(seed).append(" + ").append(statement).append(";\n");
+            program.append("write ").append(name).append(";\n");
+        }
+        return program.toString();
+    }
+
+    private String variable(int index) {
+        StringBuilder name = new StringBuilder("v");
+        do {
+            name.append((char) ('a' + index % 26));
+            index /= 26;
+        } while (index > 0);
+        return name.toString();
+    }
+
+    private byte[] compileToBytes(List<Token> tokens) {
+        Node parseTree = new Parser().parseProgram(tokens);
+        SymbolTable table = Analyizer.buildSymbolTable(parseTree);
+        Analyizer.typeCheck(parseTree);
+        return TinyCompiler.compileProgram(parseTree, new CompilerContext(), table).jiteClass.toBytes();
+    }
+
     private Class<?> compileProgram(String program) {
         List<Token> scanned = new Scanner().scan(wrap(program));
         
@@ -20,10 +20,329 @@
  */
 package net.saga.lang.tiny.test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import static java.nio.CharBuffer.wrap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.GETSTATIC;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.SIPUSH;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.RETURN;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.POP2;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.POP;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.NOP;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IFNE;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IFEQ;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_M1;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_4;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_3;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_2;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ICONST_1;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.DUP;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.BIPUSH;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.GOTO;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IADD;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IDIV;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IF_ICMPGE;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IF_ICMPNE;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ILOAD;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.IMUL;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.INVOKEVIRTUAL;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ISTORE;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.ISUB;
+import static me.qmx.jitescript.internal.org.objectweb.asm.Opcodes.LDC;
+import me.qmx.jitescript.CodeBlock;
+import static me.qmx.jitescript.CodeBlock.newCodeBlock;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.AbstractInsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.InsnList;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.JumpInsnNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.LabelNode;
+import me.qmx.jitescript.internal.org.objectweb.asm.tree.LdcInsnNode;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.compiler.CompilerContext;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.compiler.Peephole;
+import net.saga.lang.tiny.compiler.TinyCompiler;
+import net.saga.lang.tiny.optimizer.Optimizer;
+import net.saga.lang.tiny.parser.ExpressionKind;
+import net.saga.lang.tiny.parser.Node;
+import static net.saga.lang.tiny.parser.NodeType.BOOLEAN;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import static org.junit.Assert.assertEquals;
+import org.junit.Test;
+
 /**
+ * Optimizations rewrite the tree or the generated code. These tests check the
+ * instructions that are left, ignoring labels and line numbers.
  *
  * @author summers
  */
 public class Test_06_Optimizations {
-    
+
+    @Test
+    public void foldConstantArithmetic() {
+        InsnList insList = compileStatement("x := 2 * 3 + x * 1 - 0");
+
+        assertEquals(Arrays.asList(LDC, ILOAD, IADD, ISTORE), opcodes(insList));
+        assertEquals(Arrays.asList(6), constants(insList));
+    }
+
+    @Test
+    public void foldNestedConstants() {
+        InsnList insList = compileStatement("x := (1 + 2) * (10 - 4) / 3");
+
+        assertEquals(Arrays.asList(LDC, ISTORE), opcodes(insList));
+        assertEquals(Arrays.asList(6), constants(insList));
+    }
+
+    @Test
+    public void foldComparisonsToBooleans() {
+        Node lessThan = optimizeExpression("1 < 2");
+        Node equal = optimizeExpression("3 = 2 + 2");
+
+        assertEquals(ExpressionKind.ConstantExpression, lessThan.getExpressionKind());
+        assertEquals(1, lessThan.getValue());
+        assertEquals(BOOLEAN, lessThan.getNodeType());
+        assertEquals(0, equal.getValue());
+        assertEquals(BOOLEAN, equal.getNodeType());
+    }
+
+    @Test
+    public void simplifyIdentities() {
+        assertEquals(Arrays.asList(ILOAD, ISTORE), opcodes(compileStatement("x := x * 1")));
+        assertEquals(Arrays.asList(ILOAD, ISTORE), opcodes(compileStatement("x := 1 * x")));
+        assertEquals(Arrays.asList(ILOAD, ISTORE), opcodes(compileStatement("x := x + 0")));
+        assertEquals(Arrays.asList(ILOAD, ISTORE), opcodes(compileStatement("x := 0 + x")));
+        assertEquals(Arrays.asList(ILOAD, ISTORE), opcodes(compileStatement("x := x / 1")));
+
+        InsnList subtraction = compileStatement("x := x - x");
+        assertEquals(Arrays.asList(LDC, ISTORE), opcodes(subtraction));
+        assertEquals(Arrays.asList(0), constants(subtraction));
+
+        InsnList multiplication = compileStatement("x := (x + 4) * 0");
+        assertEquals(Arrays.asList(LDC, ISTORE), opcodes(multiplication));
+        assertEquals(Arrays.asList(0), constants(multiplication));
+    }
+
+    @Test
+    public void keepDivisionByZero() {
+        assertEquals(Arrays.asList(LDC, LDC, IDIV, ISTORE), opcodes(compileStatement("x := 1 / 0")));
+        assertEquals(Arrays.asList(ILOAD, LDC, IDIV, LDC, IMUL, ISTORE), opcodes(compileStatement("x := x / 0 * 0")));
+    }
+
+    @Test
+    public void optimizedProgramPrintsTheSame() throws Exception {
+        String program = "x := 4;\n"
+                + "y := x * 1 + 0;\n"
+                + "repeat\n"
+                + "  y := y + 2 * 3 - (x - x);\n"
+                + "  x := x - 1\n"
+                + "until x = 0 * y;\n"
+                + "if 1 < 2 then write y end;\n"
+                + "if 2 < 1 then write 0 else write x + 10 / 5 end";
+
+        assertEquals(run(program, false), run(program, true));
+        assertEquals("28\n2\n", run(program, true));
+    }
+
+    @Test
+    public void branchOnComparisonInIf() {
+        InsnList lessThan = compileStatement("if x < 3 then write x end");
+        InsnList equal = compileStatement("if x = 3 then write x end");
+
+        assertEquals(Arrays.asList(ILOAD, LDC, IF_ICMPGE, GETSTATIC, ILOAD, INVOKEVIRTUAL, GOTO), opcodes(lessThan));
+        assertEquals(Arrays.asList(ILOAD, LDC, IF_ICMPNE, GETSTATIC, ILOAD, INVOKEVIRTUAL, GOTO), opcodes(equal));
+    }
+
+    @Test
+    public void branchOnComparisonInRepeat() {
+        InsnList insList = compileStatement("repeat x := x - 1 until x < 1");
+
+        assertEquals(Arrays.asList(ILOAD, LDC, ISUB, ISTORE, ILOAD, LDC, IF_ICMPGE), opcodes(insList));
+        JumpInsnNode backEdge = (JumpInsnNode) insList.getLast();
+        AbstractInsnNode loopStart = backEdge.label;
+        while (loopStart.getOpcode() < 0) {
+            loopStart = loopStart.getNext();
+        }
+        assertEquals(firstInstruction(insList), loopStart);
+    }
+
+    @Test
+    public void branchOnFoldedCondition() {
+        assertEquals(Arrays.asList(GETSTATIC, ILOAD, INVOKEVIRTUAL, GOTO), opcodes(compileStatement("if 1 < 2 then write x end")));
+        assertEquals(Arrays.asList(GOTO, GETSTATIC, ILOAD, INVOKEVIRTUAL, GOTO), opcodes(compileStatement("if 2 < 1 then write x end")));
+    }
+
+    @Test
+    public void peepholePushesSmallConstants() {
+        InsnList insList = peephole(newCodeBlock().ldc(3).ldc(-1).ldc(100).ldc(-1000).ldc(100000).ldc("x"));
+
+        assertEquals(Arrays.asList(ICONST_3, ICONST_M1, BIPUSH, SIPUSH, LDC, LDC), opcodes(insList));
+        assertEquals(Arrays.asList(100000, "x"), constants(insList));
+    }
+
+    @Test
+    public void peepholeDuplicatesStoredValue() {
+        LabelNode line = new LabelNode();
+        InsnList insList = peephole(newCodeBlock().iconst_2().istore(1).label(line).line(3, line).iload(1).iload(2).istore(1).iload(2));
+
+        assertEquals(Arrays.asList(ICONST_2, DUP, ISTORE, ILOAD, ISTORE, ILOAD), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeKeepsLoadAfterJumpTarget() {
+        LabelNode loop = new LabelNode();
+        InsnList insList = peephole(newCodeBlock().iconst_2().istore(1).label(loop).iload(1).iconst_1().isub().istore(1).iload(2).ifne(loop));
+
+        assertEquals(Arrays.asList(ICONST_2, ISTORE, ILOAD, ICONST_1, ISUB, ISTORE, ILOAD, IFNE), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeRemovesJumpsToNext() {
+        LabelNode next = new LabelNode();
+        LabelNode after = new LabelNode();
+        InsnList insList = peephole(newCodeBlock().iload(0).iload(1).if_icmpne(next).label(next).go_to(after).label(after).voidreturn());
+
+        assertEquals(Arrays.asList(ILOAD, ILOAD, POP2, RETURN), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeRemovesUnreachableCode() {
+        LabelNode target = new LabelNode();
+        LabelNode unused = new LabelNode();
+        InsnList insList = peephole(newCodeBlock().iload(0).ifeq(target).go_to(target).iconst_1().label(unused).iconst_2().pop().pop().label(target).voidreturn().iconst_3());
+
+        assertEquals(Arrays.asList(ILOAD, POP, RETURN), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeThreadsJumpChains() {
+        LabelNode first = new LabelNode();
+        LabelNode second = new LabelNode();
+        LabelNode end = new LabelNode();
+        InsnList insList = peephole(newCodeBlock()
+                .iload(0).ifeq(first).iconst_1().pop().voidreturn()
+                .label(first).go_to(second)
+                .label(second).go_to(end)
+                .label(end).voidreturn());
+
+        JumpInsnNode jump = (JumpInsnNode) firstInstruction(insList).getNext();
+        assertEquals(end, jump.label);
+        assertEquals(Arrays.asList(ILOAD, IFEQ, ICONST_1, POP, RETURN, RETURN), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeStopsOnJumpCycles() {
+        LabelNode first = new LabelNode();
+        LabelNode other = new LabelNode();
+        LabelNode second = new LabelNode();
+        InsnList insList = peephole(newCodeBlock()
+                .iload(0).ifne(other)
+                .label(first).go_to(second)
+                .label(other).iconst_1().pop()
+                .label(second).go_to(first));
+
+        assertEquals(Arrays.asList(ILOAD, IFNE, GOTO, ICONST_1, POP, GOTO), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeTakesCustomRules() {
+        Peephole peephole = new Peephole().rule(NOP, (instructions, insn, jumpTargets) -> {
+            instructions.remove(insn);
+            return true;
+        });
+        InsnList insList = peephole.optimize(newCodeBlock().nop().iconst_1().nop().nop().pop().getInstructionList());
+
+        assertEquals(Arrays.asList(ICONST_1, POP), opcodes(insList));
+    }
+
+    @Test
+    public void peepholeRunsBeforeMain() throws Exception {
+        String program = "x := 4; y := x; repeat x := x - 1; y := y * 200 until x < 1; write y";
+        Node parseTree = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        SymbolTable table = Analyizer.analyze(parseTree);
+        CompilerContext context = new CompilerContext();
+        CodeBlock main = context.currentBlock();
+        TinyCompiler.compileProgram(parseTree, context, table);
+
+        assertEquals(Arrays.asList(ICONST_4, DUP, ISTORE, ISTORE,
+                ILOAD, ICONST_1, ISUB, ISTORE, ILOAD, SIPUSH, IMUL, ISTORE, ILOAD, ICONST_1, IF_ICMPGE,
+                GETSTATIC, ILOAD, INVOKEVIRTUAL, RETURN), opcodes(main.getInstructionList()));
+        assertEquals(run(program, false), run(program, true));
+    }
+
+    private InsnList peephole(CodeBlock block) {
+        return Peephole.standard().optimize(block.getInstructionList());
+    }
+
+    private Node optimizeExpression(String expression) {
+        Node parseTree = new Parser().parseExpression(new Scanner().scan(wrap(expression)));
+        Analyizer.typeCheck(parseTree);
+        return Optimizer.optimize(parseTree);
+    }
+
+    private InsnList compileStatement(String statement) {
+        Node parseTree = new Parser().parseStatement(new Scanner().scan(wrap(statement)));
+        SymbolTable table = Analyizer.analyze(parseTree);
+        parseTree = Optimizer.optimize(parseTree);
+
+        CompilerContext context = TinyCompiler.compileStatement(parseTree, new CompilerContext(), table);
+        return context.currentBlock().getInstructionList();
+    }
+
+    private String run(String program, boolean optimize) throws Exception {
+        Node parseTree = new Parser().parseProgram(new Scanner().scan(wrap(program)));
+        SymbolTable table = Analyizer.analyze(parseTree);
+        if (optimize) {
+            parseTree = Optimizer.optimize(parseTree);
+        }
+        CompilerContext context = TinyCompiler.compileProgram(parseTree, new CompilerContext().setPeephole(optimize ? Peephole.standard() : null), table);
+        Class<?> klass = new DynamicClassLoader().define(context.jiteClass);
+
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            klass.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    /**
+     * @return the opcodes of the real instructions, without labels, line
+     * numbers and frames
+     */
+    static List<Integer> opcodes(InsnList insList) {
+        List<Integer> opcodes = new ArrayList<>();
+        for (AbstractInsnNode node = insList.getFirst(); node != null; node = node.getNext()) {
+            if (node.getOpcode() >= 0) {
+                opcodes.add(node.getOpcode());
+            }
+        }
+        return opcodes;
+    }
+
+    static AbstractInsnNode firstInstruction(InsnList insList) {
+        AbstractInsnNode node = insList.getFirst();
+        while (node.getOpcode() < 0) {
+            node = node.getNext();
+        }
+        return node;
+    }
+
+    static List<Object> constants(InsnList insList) {
+        List<Object> constants = new ArrayList<>();
+        for (AbstractInsnNode node = insList.getFirst(); node != null; node = node.getNext()) {
+            if (node instanceof LdcInsnNode) {
+                constants.add(((LdcInsnNode) node).cst);
+            }
+        }
+        return constants;
+    }
+
 }
@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2015 Summers Pittman (secondsun@gmail.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.saga.lang.tiny.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import static java.nio.CharBuffer.wrap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import net.saga.lang.tiny.analyize.Analyizer;
+import net.saga.lang.tiny.analyize.SymbolTable;
+import net.saga.lang.tiny.closure.ClosureCompiler;
+import net.saga.lang.tiny.closure.ClosureProgram;
+import net.saga.lang.tiny.compiler.CompilerOptions;
+import net.saga.lang.tiny.compiler.DynamicClassLoader;
+import net.saga.lang.tiny.interpreter.Assembler;
+import net.saga.lang.tiny.interpreter.Interpreter;
+import net.saga.lang.tiny.interpreter.LoopLimitException;
+import net.saga.lang.tiny.interpreter.Program;
+import net.saga.lang.tiny.interpreter.TieredProgram;
+import net.saga.lang.tiny.interpreter.TieredRunner;
+import net.saga.lang.tiny.parser.FlatTree;
+import net.saga.lang.tiny.parser.Node;
+import net.saga.lang.tiny.parser.Parser;
+import net.saga.lang.tiny.scanner.Scanner;
+import org.apache.commons.io.IOUtils;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import org.junit.Test;
+
+/**
+ * Programs can also run without generating classes, on an interpreter over a
+ * compact register code or as a tree of specialized closures.
+ */
+public class Test_07_Interpreter {
+
+    private static final String[] PROGRAMS = {
+        "x := 7;\ny := x * 6 - 10 / 3;\nwrite y;\nwrite y / 2 + 1 - 1 * 0",
+        "x := 3;\nif x < 2 then write 1 else if x = 3 then write 2 else write 3 end end;\nwrite x",
+        "x := 0;\nsum := 0;\nrepeat\nx := x + 1;\nsum := sum + x * x\nuntil 100 < x;\nwrite sum",
+        "x := 0 - 5;\nif 1 < 0 then write 1 end;\nif x < 0 then write x end",
+        "a := 1;\nb := a;\na := a + b;\nb := (a - b) * (a + b);\nwrite a;\nwrite b"
+    };
+
+    @Test
+    public void testInterpretSample() throws Exception {
+        String program = IOUtils.toString(Test_07_Interpreter.class.getClassLoader().getResourceAsStream("sample.tny"));
+
+        assertEquals(Arrays.asList(120), interpret(program, 5));
+        assertEquals(Arrays.asList(), interpret(program, 0));
+    }
+
+    @Test
+    public void testInterpretLikeCompiled() throws Exception {
+        for (String program : PROGRAMS) {
+            StringBuilder interpreted = new StringBuilder();
+            for (int value : interpret(program)) {
+                interpreted.append(value).append('\n');
+            }
+            assertEquals(program, compiledOutput(program), interpreted.toString());
+        }
+    }
+
+    @Test
+    public void testAssignmentComputesIntoVariable() {
+        assertEquals("0: CONST r1, 1\n3: CONST r2, 2\n6: ADD r0, r1, r2\n10: HALT\n", Interpreter.load("x := 1 + 2").toString());
+        assertEquals("0: CONST r0, 4\n3: MOVE r1, r0\n6: HALT\n", Interpreter.load("x := 4;\ny := x").toString());
+    }
+
+    @Test
+    public void testBranchOnComparison() {
+        String listing = Interpreter.load("x := 0;\nrepeat\nx := x + 1\nuntil x = 10;\nif x < 20 then write x end").toString();
+
+        assertTrue(listing, listing.contains("JUMP_NE r0, r1, 3"));
+        assertTrue(listing, listing.contains("JUMP_GE"));
+        assertFalse(listing, listing.contains(" EQ "));
+        assertFalse(listing, listing.contains(" LT "));
+    }
+
+    @Test
+    public void testLoopLimit() {
+        Program program = Interpreter.load("x := 0;\nrepeat\nx := x + 1\nuntil x = 10");
+        int[] frame = new int[program.getFrameSize()];
+        assertEquals(9, Interpreter.execute(program, frame, () -> 0, value -> {
+        }, 9));
+        try {
+            Interpreter.execute(program, new int[program.getFrameSize()], () -> 0, value -> {
+            }, 8);
+            fail();
+        } catch (LoopLimitException expected) {
+            assertEquals(8, expected.getLimit());
+        }
+    }
+
+    @Test
+    public void testTemporariesAreReused() {
+        Program program = Interpreter.load("x := 1 + 2 * 3;\ny := (x + 1) * (x - 1);\nwrite y");
+
+        assertEquals(2, program.getVariables());
+        assertEquals(5, program.getFrameSize());
+        assertEquals(Arrays.asList(48), interpret("x := 1 + 2 * 3;\ny := (x + 1) * (x - 1);\nwrite y"));
+    }
+
+    @Test
+    public void testInterpretFlatTree() throws Exception {
+        String program = IOUtils.toString(Test_07_Interpreter.class.getClassLoader().getResourceAsStream("sample.tny"));
+        FlatTree tree = new Parser().parseFlat(new Scanner().scan(wrap(program)));
+        SymbolTable table = Analyizer.analyze(tree);
+
+        List<Integer> output = new ArrayList<>();
+        Program assembled = Assembler.assemble(tree, table);
+        Interpreter.execute(assembled, new int[assembled.getFrameSize()], () -> 4, output::add);
+        assertEquals(Arrays.asList(24), output);
+    }
+
+    @Test
+    public void testInterpretLongProgram() {
+        StringBuilder program = new StringBuilder("x := 0");
+        for (int i = 0; i < 50000; i++) {
+            program.append(";\nx := x + 1");
+        }
+        program.append(";\nx := x");
+        for (int i = 0; i < 50000; i++) {
+            program.append(" + 1");
+        }
+        program.append(";\nwrite x");
+
+        assertEquals(Arrays.asList(100000), interpret(program.toString()));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testDivisionByZero() {
+        interpret("x := 0;\nwrite 1 / x");
+    }
+
+    @Test
+    public void testClosuresLikeCompiled() throws Exception {
+        for (String program : PROGRAMS) {
+            StringBuilder closures = new StringBuilder();
+            for (int value : runClosures(program)) {
+                closures.append(value).append('\n');
+            }
+            assertEquals(program, compiledOutput(program), closures.toString());
+        }
+    }
+
+    @Test
+    public void testClosureSample() throws Exception {
+        String program = IOUtils.toString(Test_07_Interpreter.class.getClassLoader().getResourceAsStream("sample.tny"));
+
+        assertEquals(Arrays.asList(120), runClosures(program, 5));
+    }
+
+    @Test
+    public void testClosuresAreSpecialized() {
+        String program = "x := 0;\nrepeat\nx := x + 1\nuntil x = 10;\ny := x + 1 + 2 - 4;\nif x < y then write x * y end";
+
+        assertEquals("r0 := 0; repeat [r0 += 1] until r0 = 10; r1 := (r0 + -1); if r0 < r1 then [write (r0 * r1)] else []",
+                ClosureCompiler.load(program).toString());
+    }
+
+    @Test
+    public void testClosuresOfLongProgram() {
+        StringBuilder program = new StringBuilder("x := 0");
+        for (int i = 0; i < 50000; i++) {
+            program.append(";\nx := x + 1");
+        }
+        program.append(";\nx := x");
+        for (int i = 0; i < 50000; i++) {
+            program.append(" + 1");
+        }
+        program.append(";\nwrite x");
+
+        assertEquals(Arrays.asList(100000), runClosures(program.toString()));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void testClosureDivisionByZero() {
+        runClosures("x := 0;\nwrite 1 / x");
+    }
+
+    @Test
+    public void testTieredStaysInterpretedWhileCold() throws Throwable {
+        TieredProgram program = new TieredRunner(new CompilerOptions(), 3, 1000, Runnable::run).load("x := 6;\nwrite x * 7");
+
+        assertEquals("42\n", output(program));
+        assertEquals("42\n", output(program));
+        assertEquals(TieredProgram.Tier.INTERPRETED, program.getTier());
+        assertEquals(2, program.getInvocations());
+    }
+
+    @Test
+    public void testTieredCompilesAfterInvocations() throws Throwable {
+        TieredProgram program = new TieredRunner(new CompilerOptions(), 3, 1000, Runnable::run).load("x := 6;\nwrite x * 7");
+
+        for (int i = 0; i < 3; i++) {
+            assertEquals("42\n", output(program));
+        }
+        assertEquals(TieredProgram.Tier.COMPILED, program.getTier());
+        assertEquals("42\n", output(program));
+        assertEquals(4, program.getInvocations());
+    }
+
+    @Test
+    public void testTieredCompilesHotLoop() throws Throwable {
+        TieredProgram program = new TieredRunner(new CompilerOptions(), 1000, 500, Runnable::run)
+                .load("x := 0;\nrepeat\nx := x + 1\nuntil x = 1000;\nwrite x");
+
+        assertEquals("1000\n", output(program));
+        assertEquals(999, program.getBackEdges());
+        assertEquals(TieredProgram.Tier.COMPILED, program.getTier());
+        assertEquals("1000\n", output(program));
+        assertEquals(999, program.getBackEdges());
+    }
+
+    @Test
+    public void testTieredCompilesInBackground() throws Throwable {
+        ExecutorService compiler = Executors.newSingleThreadExecutor();
+        try {
+            TieredProgram program = new TieredRunner(new CompilerOptions(), 10, 1000, compiler).load("x := 1;\nwrite x");
+            PrintStream out = System.out;
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            try {
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+                while (program.getTier() != TieredProgram.Tier.COMPILED && System.nanoTime() < deadline) {
+                    program.run();
+                }
+            } finally {
+                System.setOut(out);
+            }
+            assertEquals(TieredProgram.Tier.COMPILED, program.getTier());
+            assertTrue(program.getInvocations() >= 10);
+        } finally {
+            compiler.shutdown();
+        }
+    }
+
+    private static String output(TieredProgram program) throws Throwable {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            program.run();
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+    private static List<Integer> runClosures(String source, int... input) {
+        ClosureProgram program = ClosureCompiler.load(source);
+        List<Integer> output = new ArrayList<>();
+        int[] next = {0};
+        program.execute(new int[program.getFrameSize()], () -> input[next[0]++], output::add);
+        return output;
+    }
+
+    private static List<Integer> interpret(String source, int... input) {
+        Program program = Interpreter.load(source);
+        List<Integer> output = new ArrayList<>();
+        int[] next = {0};
+        Interpreter.execute(program, new int[program.getFrameSize()], () -> input[next[0]++], output::add);
+        return output;
+    }
+
+    private static String compiledOutput(String source) throws Exception {
+        Class<?> klass = new DynamicClassLoader().define(new CompilerOptions().compile(source, "Interpreted").jiteClass);
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            klass.getMethod("main", String[].class).invoke(null, (Object) new String[0]);
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString().replace("\r\n", "\n");
+    }
+
+}